@@ -0,0 +1,222 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BatchAnalyzer class
+ *
+ * Analyzes a file of positions with a fixed depth or node budget and
+ * writes the best move, score and principal variation of each, in input
+ * order. Positions are read as they are needed: at most a few per thread
+ * are read ahead of the one being written, so memory use doesn't grow
+ * with the input. Every position is searched by a cleared Bot with a
+ * Random seeded from its line number, so the output doesn't depend on the
+ * thread count or on which thread got which position.
+ *
+ * An input line is a position, the player to move coming from the number
+ * of stones, either as the text form of PositionCodec or in the theaigames
+ * protocol's order:
+ *
+ *   000000000000000000000000000000007fc0000000000000  (the empty board)
+ *   0,0,1,...(81 cells, row by row) -1,0,...(9 boards, row by row)
+ *
+ * Blank lines and lines starting with # are skipped. An output line is
+ *
+ *   lineNumber x y score depth nodes pv x,y x,y ...
+ *
+ * or lineNumber followed by "error" and the reason.
+ *
+ * Usage: java BatchAnalyzer input output [depth=8] [nodes=0] [threads]
+ */
+
+public class BatchAnalyzer {
+   // Hash table of each thread's Bot, in megabytes
+   private static final int HASH_SIZE = 4;
+   // Positions read ahead of the one being written, per thread
+   private static final int READ_AHEAD = 16;
+   private static final long REPORT_INTERVAL = 10000;
+
+   private final int depth;
+   private final long nodeLimit;
+   private final int threads;
+   private final ThreadLocal<Bot> workerBot;
+
+   public BatchAnalyzer(int depth, long nodeLimit, int threads) {
+      this.depth = depth;
+      this.nodeLimit = nodeLimit;
+      this.threads = threads;
+
+      workerBot = ThreadLocal.withInitial(() -> {
+         Bot bot = new Bot(HASH_SIZE);
+         bot.setTimeLimit(0);
+         bot.setMaxDepth(depth);
+         bot.setNodeLimit(nodeLimit);
+         return bot;
+      });
+   }
+
+   public void run(String input, String output) throws IOException, InterruptedException {
+      AtomicInteger count = new AtomicInteger();
+      ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+         Thread thread = new Thread(runnable, "analyzer-" + count.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      });
+
+      // Results waiting to be written, oldest first
+      ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+      long startTime = System.nanoTime();
+      long positions = 0, totalNodes = 0;
+
+      try (BufferedReader in = Files.newBufferedReader(Paths.get(input), StandardCharsets.US_ASCII);
+           BufferedWriter out = Files.newBufferedWriter(Paths.get(output), StandardCharsets.US_ASCII)) {
+         String line;
+         int lineNumber = 0;
+
+         while ((line = in.readLine()) != null) {
+            lineNumber++;
+            String text = line.trim();
+            if (text.isEmpty() || text.startsWith("#"))
+               continue;
+
+            final int number = lineNumber;
+            pending.add(pool.submit(() -> analyze(number, text)));
+
+            while (pending.size() >= threads * READ_AHEAD)
+               totalNodes += write(pending.poll(), out);
+
+            if (++positions % REPORT_INTERVAL == 0)
+               report(positions, totalNodes, startTime);
+         }
+
+         while (!pending.isEmpty())
+            totalNodes += write(pending.poll(), out);
+      }
+      finally {
+         pool.shutdownNow();
+      }
+
+      report(positions, totalNodes, startTime);
+   }
+
+   // Writes one result and returns the nodes its search took
+   private static long write(Future<String> result, BufferedWriter out) throws IOException, InterruptedException {
+      String line;
+      try {
+         line = result.get();
+      }
+      catch (ExecutionException e) {
+         throw new IOException("Analysis failed", e.getCause());
+      }
+
+      out.write(line);
+      out.newLine();
+
+      String[] fields = line.split(" ", 7);
+      return fields.length > 5 && !fields[1].equals("error") ? Long.parseLong(fields[5]) : 0;
+   }
+
+   private static void report(long positions, long nodes, long startTime) {
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      System.err.println(String.format("%d positions in %.1f s, %.1f positions/s, %.0f nodes/s",
+         positions, seconds, positions / seconds, nodes / seconds));
+   }
+
+   // A line that can't be analyzed gets an error line, and the batch goes on
+   private String analyze(int lineNumber, String text) {
+      try {
+         return analyze(lineNumber, parse(text));
+      }
+      catch (IllegalArgumentException e) {
+         return lineNumber + " error " + e.getMessage();
+      }
+      catch (RuntimeException e) {
+         return lineNumber + " error " + e;
+      }
+   }
+
+   private String analyze(int lineNumber, State state) {
+      if (state.isGameOver())
+         throw new IllegalArgumentException("game over");
+      if (state.generateMoves(new int[State.MAX_MOVES]) == 0)
+         throw new IllegalArgumentException("no legal moves");
+
+      Bot bot = workerBot.get();
+      bot.clear();
+      bot.setSeed(lineNumber);
+
+      int player = state.getPlayerToMove();
+      Move move = bot.getBestMove(state, player);
+      int[] line = new int[State.MAX_MOVES];
+      int length = bot.getPrincipalVariation(state, player, move.toIndex(), line);
+
+      StringBuilder s = new StringBuilder();
+      s.append(lineNumber).append(' ').append(move.getX()).append(' ').append(move.getY());
+      s.append(' ').append(bot.getLastScore()).append(' ').append(bot.getLastDepth()).append(' ').append(bot.getNodes());
+      s.append(" pv");
+      for (int i = 0; i < length; i++)
+         s.append(' ').append(State.getX(line[i])).append(',').append(State.getY(line[i]));
+      return s.toString();
+   }
+
+   // Reads a position code, or "field macroboard" in the order BotStarter reads them
+   private static State parse(String text) {
+      if (text.length() == PositionCodec.TEXT_LENGTH)
+         return PositionCodec.fromText(text);
+
+      String[] parts = text.split("\\s+");
+      if (parts.length != 2)
+         throw new IllegalArgumentException("expected field and macroboard");
+
+      String[] cells = parts[0].split(",");
+      String[] boards = parts[1].split(",");
+      if (cells.length != 81 || boards.length != 9)
+         throw new IllegalArgumentException("expected 81 cells and 9 boards");
+
+      int[][] board = new int[9][9];
+      int[][] macroboard = new int[3][3];
+
+      try {
+         for (int i = 0; i < 81; i++)
+            board[i % 9][i / 9] = Integer.parseInt(cells[i]);
+         for (int i = 0; i < 9; i++)
+            macroboard[i % 3][i / 3] = Integer.parseInt(boards[i]);
+      }
+      catch (NumberFormatException e) {
+         throw new IllegalArgumentException("bad number");
+      }
+
+      // Cells are empty, 1 or 2; boards active (-1), open, won by 1 or 2, or tied
+      for (int i = 0; i < 81; i++) {
+         if (board[i % 9][i / 9] < 0 || board[i % 9][i / 9] > 2)
+            throw new IllegalArgumentException("bad cell " + board[i % 9][i / 9]);
+      }
+      for (int i = 0; i < 9; i++) {
+         if (macroboard[i % 3][i / 3] < -1 || macroboard[i % 3][i / 3] > State.TIE)
+            throw new IllegalArgumentException("bad board " + macroboard[i % 3][i / 3]);
+      }
+      return new State(board, macroboard);
+   }
+
+   public static void main(String[] args) throws IOException, InterruptedException {
+      if (args.length < 2) {
+         System.err.println("Usage: java BatchAnalyzer input output [depth] [nodes] [threads]");
+         return;
+      }
+
+      int depth = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+      long nodes = args.length > 3 ? Long.parseLong(args[3]) : 0;
+      int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+      new BatchAnalyzer(depth, nodes, threads).run(args[0], args[1]);
+   }
+}
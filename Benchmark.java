@@ -0,0 +1,220 @@
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/**
+ * Benchmark class
+ *
+ * Microbenchmarks for the engine's hot paths over the BenchmarkPositions
+ * corpus. Each benchmark is warmed up and then timed, and the allocated
+ * bytes of the benchmark thread are read before and after, so every line
+ * reports ns/op, bytes/op and the allocation rate in MB/s (and nodes/s for
+ * the searches). Searches use
+ * seeded Bots, so runs can be compared.
+ *
+ * Usage: java Benchmark [name filter], or gradle benchmark [-Pfilter=name]
+ */
+
+public class Benchmark {
+   private static final long WARMUP_NANOS = 1000000000L, MEASURE_NANOS = 2000000000L;
+   private static final long SEED = 42;
+
+   // Results are summed into here so the JIT can't drop the work
+   private static volatile long sink;
+
+   private interface Operation {
+      // Runs the operation on the i-th input and returns something to sink
+      long run(int i);
+   }
+
+   private static com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+   public static void main(String[] args) {
+      String filter = args.length > 0 ? args[0] : "";
+
+      final ArrayList<State> positions = BenchmarkPositions.getAll();
+      final int count = positions.size();
+      final int[][][] boards = new int[count][][];
+      final int[][][] macroboards = new int[count][][];
+      final int[] players = new int[count];
+      final ArrayList<ArrayList<Move>> legalMoves = new ArrayList<ArrayList<Move>>();
+      final int[][] flatBoards = new int[count][9];
+
+      final Bot bot = new Bot();
+      final Evaluator evaluator = new Evaluator(bot);
+      final int[] moves = new int[State.MAX_MOVES];
+
+      for (int i = 0; i < count; i++) {
+         State state = positions.get(i);
+         boards[i] = state.getBoard();
+         macroboards[i] = state.getMacroboard();
+         players[i] = state.getPlayerToMove();
+         legalMoves.add(bot.getAvailableMoves(state));
+
+         for (int cell = 0; cell < 9; cell++) {
+            int bit = 1 << cell;
+            flatBoards[i][cell] = (state.getCells(1, 4) & bit) != 0 ? 1 : (state.getCells(2, 4) & bit) != 0 ? 2 : 0;
+         }
+      }
+
+      System.out.println(String.format("%-28s %14s %12s %10s %14s", "Benchmark", "ns/op", "bytes/op", "MB/s", "nodes/s"));
+
+      run("getAvailableMoves", filter, count, new Operation() {
+         public long run(int i) {
+            return bot.getAvailableMoves(positions.get(i)).size();
+         }
+      });
+
+      run("generateMoves", filter, count, new Operation() {
+         public long run(int i) {
+            return positions.get(i).generateMoves(moves);
+         }
+      });
+
+      run("generateState", filter, count, new Operation() {
+         public long run(int i) {
+            return bot.generateState(legalMoves.get(i).get(0), players[i], boards[i], macroboards[i]).getHash();
+         }
+      });
+
+      run("makeMove/unmakeMove", filter, count, new Operation() {
+         public long run(int i) {
+            State state = positions.get(i);
+            state.makeMove(legalMoves.get(i).get(0).toIndex(), players[i]);
+            long hash = state.getHash();
+            state.unmakeMove();
+            return hash;
+         }
+      });
+
+      run("evaluationFunction", filter, count, new Operation() {
+         public long run(int i) {
+            return bot.evaluationFunction(positions.get(i), players[i]);
+         }
+      });
+
+      run("Evaluator reset/make/eval", filter, count, new Operation() {
+         public long run(int i) {
+            State state = positions.get(i);
+            int move = legalMoves.get(i).get(0).toIndex();
+
+            evaluator.reset(state);
+            state.makeMove(move, players[i]);
+            evaluator.makeMove(state, move / 9);
+            long score = evaluator.evaluate(players[i]);
+            state.unmakeMove();
+            evaluator.unmakeMove(state);
+            return score;
+         }
+      });
+
+      final long[] code = new long[PositionCodec.LONGS];
+      final long[][] codes = new long[count][PositionCodec.LONGS];
+      final String[] texts = new String[count];
+      for (int i = 0; i < count; i++) {
+         PositionCodec.encode(positions.get(i), codes[i]);
+         texts[i] = PositionCodec.toText(codes[i]);
+      }
+
+      run("PositionCodec encode", filter, count, new Operation() {
+         public long run(int i) {
+            PositionCodec.encode(positions.get(i), code);
+            return code[0] ^ code[1] ^ code[2];
+         }
+      });
+
+      run("PositionCodec decode", filter, count, new Operation() {
+         public long run(int i) {
+            return PositionCodec.decode(codes[i]).getHash();
+         }
+      });
+
+      run("PositionCodec toText", filter, count, new Operation() {
+         public long run(int i) {
+            return PositionCodec.toText(codes[i]).length();
+         }
+      });
+
+      run("PositionCodec fromText", filter, count, new Operation() {
+         public long run(int i) {
+            PositionCodec.fromText(texts[i], code);
+            return code[0] ^ code[1] ^ code[2];
+         }
+      });
+
+      run("Bot.toString", filter, count, new Operation() {
+         public long run(int i) {
+            return bot.toString(boards[i]).length();
+         }
+      });
+
+      // Each position is drawn over the one before it, so this times the
+      // redraw of whatever the two differ in
+      final BoardRenderer renderer = new BoardRenderer(800, 800, 100, 168, 48);
+      run("BoardRenderer update", filter, count, new Operation() {
+         public long run(int i) {
+            Rectangle dirty = renderer.update(boards[i], macroboards[i]);
+            return dirty == null ? 0 : dirty.width;
+         }
+      });
+
+      run("isWin", filter, count, new Operation() {
+         public long run(int i) {
+            return Bot.isWin(flatBoards[i], players[i]) ? 1 : 0;
+         }
+      });
+
+      for (final int depth : new int[]{4, 6, 8}) {
+         // A small table keeps the per-search clear cheap
+         final Bot searcher = new Bot(1);
+
+         run("getBestMove depth " + depth, filter, count, new Operation() {
+            public long run(int i) {
+               // A fresh table each time, so every search does the same work
+               searcher.getTable().clear();
+               searcher.setSeed(SEED);
+               searcher.getBestMove(legalMoves.get(i), boards[i], macroboards[i], players[i], depth);
+               searchNodes += searcher.getNodes();
+               return searcher.getLastScore();
+            }
+         });
+      }
+   }
+
+   private static long searchNodes;
+
+   private static void run(String name, String filter, int inputs, Operation operation) {
+      if (!name.contains(filter))
+         return;
+
+      // Warm up, then count how many operations fit into the measuring time
+      long end = System.nanoTime() + WARMUP_NANOS;
+      long ops = 0;
+      while (System.nanoTime() < end)
+         sink += operation.run((int) (ops++ % inputs));
+
+      searchNodes = 0;
+      ops = 0;
+      long threadId = Thread.currentThread().getId();
+      long startBytes = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      end = start + MEASURE_NANOS;
+
+      // Check the clock once per pass over the inputs
+      while (System.nanoTime() < end) {
+         for (int i = 0; i < inputs; i++)
+            sink += operation.run(i);
+         ops += inputs;
+      }
+
+      long time = System.nanoTime() - start;
+      long bytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+      String nodesPerSecond = searchNodes > 0 ? String.valueOf(searchNodes * 1000000000L / time) : "-";
+
+      double megabytesPerSecond = bytes * 1000.0 / time;
+
+      System.out.println(String.format("%-28s %14.1f %12.1f %10.1f %14s", name, (double) time / ops, (double) bytes / ops,
+         megabytesPerSecond, nodesPerSecond));
+   }
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * BenchmarkPositions class
+ *
+ * A fixed set of midgame and endgame positions, made by playing random
+ * moves from seeded Randoms, so searches can be compared between changes.
+ * Running the class prints the nodes a fixed-depth search takes on each.
+ */
+
+public class BenchmarkPositions {
+   public static final int MIDGAME_PLY = 16, ENDGAME_PLY = 40;
+   private static final int COUNT = 8;
+
+   public static ArrayList<State> getMidgame() {
+      return generate(MIDGAME_PLY, 1000);
+   }
+
+   public static ArrayList<State> getEndgame() {
+      return generate(ENDGAME_PLY, 2000);
+   }
+
+   public static ArrayList<State> getAll() {
+      ArrayList<State> positions = getMidgame();
+      positions.addAll(getEndgame());
+      return positions;
+   }
+
+   private static ArrayList<State> generate(int plies, long firstSeed) {
+      ArrayList<State> positions = new ArrayList<State>();
+      long seed = firstSeed;
+      int[] moves = new int[State.MAX_MOVES];
+
+      while (positions.size() < COUNT) {
+         Random random = new Random(seed++);
+         State state = new State();
+         int player = 1;
+         int ply = 0;
+
+         while (ply < plies && !state.isGameOver()) {
+            int count = state.generateMoves(moves);
+            state.makeMove(moves[random.nextInt(count)], player);
+            player = 3 - player;
+            ply++;
+         }
+
+         // Games that ended early are skipped
+         if (ply == plies && !state.isGameOver())
+            positions.add(new State(state));
+      }
+      return positions;
+   }
+
+   // Usage: BenchmarkPositions [depth] [noordering]
+   public static void main(String[] args) {
+      int depth = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+      boolean ordering = !(args.length > 1 && args[1].equals("noordering"));
+      long total = 0;
+
+      ArrayList<State> positions = getAll();
+      for (int i = 0; i < positions.size(); i++) {
+         State state = positions.get(i);
+         int player = state.getPlayerToMove();
+
+         Bot bot = new Bot();
+         bot.setMoveOrdering(ordering);
+         bot.getBestMove(bot.getAvailableMoves(state), state.getBoard(), state.getMacroboard(), player, depth);
+
+         System.out.println("Position " + i + ": " + bot.getNodes() + " nodes");
+         total += bot.getNodes();
+      }
+      System.out.println("Total: " + total + " nodes at depth " + depth);
+   }
+}
@@ -0,0 +1,184 @@
+import java.awt.*;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * BoardRenderer class
+ *
+ * Keeps the drawn board in an image and brings it up to date by redrawing
+ * only what changed since the last update: the tiles that got a piece, and
+ * the microboards whose border changed. The pieces and the grid of each
+ * microboard status are drawn once into images of their own and the tile
+ * positions worked out once, so an update copies a few small images and
+ * creates no fonts, strokes or shapes. The images are opaque, background
+ * included, so drawing one is a plain copy: a microboard is redrawn by
+ * copying its grid and then its pieces, which are cut to the inside of
+ * their tiles and never reach the lines.
+ */
+
+public class BoardRenderer {
+   // Thick borders reach this far outside a microboard, and lines this far
+   // into a tile
+   private static final int MARGIN = 2;
+
+   private final int offset, localBoardSize, gap, tileSize;
+
+   // Left edge of each column of tiles, which is also the top edge of each row
+   private final int[] tileStart = new int[9];
+
+   private final BufferedImage image;
+   // Indexed by player
+   private final BufferedImage[] pieces = new BufferedImage[3];
+   // Indexed by macroboard value + 1: active, open, won by 1, won by 2, tied
+   private final BufferedImage[] grids = new BufferedImage[5];
+
+   // What the image shows
+   private final int[][] drawnBoard = new int[9][9];
+   private final int[][] drawnMacroboard = new int[3][3];
+   private boolean drawn;
+
+   public BoardRenderer(int width, int height, int offset, int localBoardSize, int gap) {
+      this.offset = offset;
+      this.localBoardSize = localBoardSize;
+      this.gap = gap;
+      tileSize = localBoardSize / 3;
+
+      for (int i = 0; i < 9; i++)
+         tileStart[i] = offset + (i / 3) * (localBoardSize + gap) + (i % 3) * tileSize;
+
+      image = createImage(width, height);
+
+      // Circle
+      pieces[1] = createImage(tileSize - 2 * MARGIN, tileSize - 2 * MARGIN);
+      Graphics2D g = pieces[1].createGraphics();
+      g.translate(-MARGIN, -MARGIN);
+      g.setColor(Color.RED);
+      g.fillOval(tileSize / 8, tileSize / 8, tileSize * 3 / 4, tileSize * 3 / 4);
+      g.setColor(Color.LIGHT_GRAY);
+      g.fillOval(tileSize / 4, tileSize / 4, tileSize / 2, tileSize / 2);
+      g.dispose();
+
+      // X
+      pieces[2] = createImage(tileSize - 2 * MARGIN, tileSize - 2 * MARGIN);
+      g = pieces[2].createGraphics();
+      g.translate(-MARGIN, -MARGIN);
+      g.setColor(Color.BLUE);
+      g.setStroke(new BasicStroke(8));
+      g.draw(new Line2D.Float(tileSize / 4, tileSize / 4, tileSize * 3 / 4, tileSize * 3 / 4));
+      g.draw(new Line2D.Float(tileSize / 4, tileSize * 3 / 4, tileSize * 3 / 4, tileSize * 1 / 4));
+      g.dispose();
+
+      grids[0] = createGrid(Color.WHITE, 1);
+      grids[1] = createGrid(Color.BLACK, 1);
+      grids[2] = createGrid(Color.RED, 3);
+      grids[3] = createGrid(Color.BLUE, 3);
+      grids[4] = grids[1];
+   }
+
+   // An image of the background colour
+   private static BufferedImage createImage(int width, int height) {
+      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = image.createGraphics();
+      g.setColor(Color.LIGHT_GRAY);
+      g.fillRect(0, 0, width, height);
+      g.dispose();
+      return image;
+   }
+
+   private BufferedImage createGrid(Color color, int width) {
+      int size = localBoardSize + 2 * MARGIN + 1;
+      BufferedImage grid = createImage(size, size);
+      Graphics2D g = grid.createGraphics();
+      g.setColor(color);
+      g.setStroke(new BasicStroke(width));
+
+      // 4 vertical lines and 4 horizontal lines
+      for (int k = 0; k < 4; k++) {
+         int step = MARGIN + (int) (k / 3.0 * localBoardSize);
+         g.drawLine(step, MARGIN, step, MARGIN + localBoardSize);
+         g.drawLine(MARGIN, step, MARGIN + localBoardSize, step);
+      }
+      g.dispose();
+      return grid;
+   }
+
+   public BufferedImage getImage() {
+      return image;
+   }
+
+   // The column (or row) of tiles the coordinate is within, -1 for none
+   public int getTile(int coordinate) {
+      for (int i = 0; i < 9; i++) {
+         if (coordinate > tileStart[i] && coordinate < tileStart[i] + tileSize)
+            return i;
+      }
+      return -1;
+   }
+
+   // Redraws what changed since the last update and returns the area of the
+   // image that did, or null if nothing did
+   public Rectangle update(int[][] board, int[][] macroboard) {
+      Graphics2D g = image.createGraphics();
+      Rectangle dirty = null;
+
+      for (int bx = 0; bx < 3; bx++) {
+         for (int by = 0; by < 3; by++) {
+            // A new border, or a piece taken away, means the whole microboard
+            boolean redraw = !drawn || macroboard[bx][by] != drawnMacroboard[bx][by];
+            for (int x = bx * 3; x < bx * 3 + 3 && !redraw; x++) {
+               for (int y = by * 3; y < by * 3 + 3; y++) {
+                  if (drawnBoard[x][y] != 0 && board[x][y] != drawnBoard[x][y])
+                     redraw = true;
+               }
+            }
+
+            if (redraw) {
+               dirty = union(dirty, drawMicroboard(g, bx, by, board, macroboard[bx][by]));
+               continue;
+            }
+
+            for (int x = bx * 3; x < bx * 3 + 3; x++) {
+               for (int y = by * 3; y < by * 3 + 3; y++) {
+                  if (board[x][y] != drawnBoard[x][y])
+                     dirty = union(dirty, drawPiece(g, x, y, board[x][y]));
+               }
+            }
+         }
+      }
+
+      g.dispose();
+      drawn = true;
+      return dirty;
+   }
+
+   private Rectangle drawMicroboard(Graphics2D g, int bx, int by, int[][] board, int status) {
+      int startX = offset + bx * (localBoardSize + gap) - MARGIN;
+      int startY = offset + by * (localBoardSize + gap) - MARGIN;
+      int size = localBoardSize + 2 * MARGIN + 1;
+
+      g.drawImage(grids[status + 1], startX, startY, null);
+      drawnMacroboard[bx][by] = status;
+
+      for (int x = bx * 3; x < bx * 3 + 3; x++) {
+         for (int y = by * 3; y < by * 3 + 3; y++) {
+            drawnBoard[x][y] = 0;
+            if (board[x][y] != 0)
+               drawPiece(g, x, y, board[x][y]);
+         }
+      }
+      return new Rectangle(startX, startY, size, size);
+   }
+
+   private Rectangle drawPiece(Graphics2D g, int x, int y, int player) {
+      g.drawImage(pieces[player], tileStart[x] + MARGIN, tileStart[y] + MARGIN, null);
+      drawnBoard[x][y] = player;
+      return new Rectangle(tileStart[x] + MARGIN, tileStart[y] + MARGIN, tileSize - 2 * MARGIN, tileSize - 2 * MARGIN);
+   }
+
+   private static Rectangle union(Rectangle a, Rectangle b) {
+      if (a == null)
+         return b;
+      a.add(b);
+      return a;
+   }
+}
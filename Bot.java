@@ -1,5 +1,10 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Bot class
@@ -11,7 +16,7 @@ import java.util.Random;
  * @author Jim van Eeden <jim@starapple.nl>, Joost de Meij <joost@starapple.nl>
  */
 
-public class Bot {
+public class Bot implements Engine {
 	private final int COLS = 9, ROWS = 9;
    
    // The evaluation function's socre should never exceed MAX_SCORE
@@ -19,90 +24,513 @@ public class Bot {
    private final int SEARCH_DEPTH = 0;
    private final int INITIAL_ALPHA = -100000, INITIAL_BETA = 100000;
    
+   // Win scores are stored in the transposition table relative to the node's depth
+   private final int WIN_THRESHOLD = MAX_SCORE - State.MAX_MOVES - 1;
+   private static final int DEFAULT_HASH_SIZE = 16;
+   private static final int SOLVER_HASH_SIZE = 16;
+   private static final int DEFAULT_ASPIRATION_WINDOW = 0;
+   // Moves searched at full depth before late move reductions start
+   private static final int LATE_MOVE_COUNT = 3;
+   
    
 	private String mLastError = "";
    private Random r;
+   
+   private TranspositionTable table;
+   private int tableBotId;
+   
+   // Milliseconds getBestMove may spend, 0 for no limit
+   private long timeLimit;
+   private int maxDepth = State.MAX_MOVES;
+   // Nodes after which no new iteration is started, 0 for no limit
+   private long nodeLimit;
+   private long deadline;
+   private boolean aborted;
+   private long nodes;
+   private long tableHits, tableMisses;
+   
+   // Search counters, kept per thread and added up after each search
+   private long evaluations, cutoffs, firstMoveCutoffs;
+   // Nodes of the last two completed iterations, for the branching factor
+   private long lastIterationNodes, previousIterationNodes;
+   private final SearchStats stats = new SearchStats();
+   
+   private int lastDepth, lastScore, lastMove;
+   private long lastTime;
+   
+   // Lazy SMP: helper bots search the same position on the pool's threads,
+   // sharing only the transposition table. Each keeps its own state and Random.
+   private int threads = 1;
+   private Bot[] helpers = new Bot[0];
+   private ExecutorService pool;
+   private volatile boolean stopped;
+   
+   // Weights of the evaluation's terms, and the evaluator that keeps the terms
+   // up to date as the search makes and unmakes moves
+   private EvaluationWeights weights = new EvaluationWeights();
+   private Evaluator evaluator;
+   
+   // Legal moves at the root, and the ones sharing the best score
+   private int[] rootMoves = new int[State.MAX_MOVES];
+   private int[] bestRootMoves = new int[State.MAX_MOVES];
+   private int rootMoveCount;
+   
+   // Moves of the node being searched at each ply, and their ordering scores
+   private int[][] moveStack = new int[State.MAX_MOVES + 1][State.MAX_MOVES];
+   private int[][] orderStack = new int[State.MAX_MOVES + 1][State.MAX_MOVES];
+   
+   // Move ordering: two killer moves per ply and a history score per player and cell
+   private boolean moveOrdering = true;
+   
+   // Half width of the root's aspiration window, 0 to always search the full window.
+   // Off by default: with alpha already shared between the root moves it saved
+   // nothing on the benchmark positions.
+   private int aspirationWindow = DEFAULT_ASPIRATION_WINDOW;
+   
+   // Selective search: plies taken off late quiet moves, and one ply added to
+   // moves that give a free move or make or block a macroboard two-in-a-row.
+   // Extensions are off by default, they lost strength in fixed-time self-play.
+   private int lateMoveReduction = 2;
+   private boolean extensions;
+   private int iterationDepth;
+   private int[][] killers = new int[State.MAX_MOVES + 1][2];
+   private int[][] history = new int[3][State.MAX_MOVES];
+   
+   // Moves of the first few plies, searched deeply offline
+   private OpeningBook book;
+   
+   // Positions with fewer open cells than the threshold are solved exactly
+   private EndgameSolver solver;
+   private int solverThreshold;
+   private boolean lastSolved;
+   
+   // Pondering: during the opponent's turn a thread searches the position
+   // after the reply the last search expected, without a time limit
+   private Thread ponderThread;
+   private boolean pondering;
+   private long ponderHash;
+   private int ponderBotId;
+   private long ponderStart;
+   private volatile Move ponderMove;
+   private boolean lastPonderHit;
 	
 	public Bot() {
-      r = new Random();
+      this(DEFAULT_HASH_SIZE);
 	}
+   
+   // hashSize is the transposition table's memory budget in megabytes
+   public Bot(int hashSize) {
+      this(new TranspositionTable(hashSize));
+   }
+   
+   private Bot(TranspositionTable table) {
+      r = new Random();
+      this.table = table;
+      evaluator = new Evaluator(this);
+   }
 
+	// Adapter for callers that want Move objects; the search itself only uses int moves
 	public ArrayList<Move> getAvailableMoves(State state) {
 	   ArrayList<Move> moves = new ArrayList<Move>();
-		int[][] board = state.getBoard();
-      int[][] macroboard = state.getMacroboard();
-      
-		for (int y = 0; y < ROWS; y++) {
-            for (int x = 0; x < COLS; x++) {
-                if (isInActiveMicroboard(x, y, macroboard) && board[x][y] == 0) {
-                    moves.add(new Move(x, y));
-                }
-            }
-        }
+      int[] buffer = new int[State.MAX_MOVES];
+      int count = state.generateMoves(buffer);
+      
+      for (int i = 0; i < count; i++)
+         moves.add(Move.fromIndex(buffer[i]));
 
 		return moves;
 	}
    
-   //reward for two in a rows in potential three in a rows on macroboard
+   // Searches as deep as the time limit and the maximum depth allow. If
+   // pondering guessed the position, that search goes on and the time it
+   // already spent counts against the limit.
+   public Move getBestMove(State state, int botId) {
+      lastPonderHit = false;
+      
+      if (ponderThread != null) {
+         boolean hit = botId == ponderBotId && state.getHash() == ponderHash;
+         
+         if (hit && timeLimit > 0)
+            join(ponderThread, ponderStart + timeLimit * 1000000 - System.nanoTime());
+         else if (hit)
+            join(ponderThread, Long.MAX_VALUE);
+         stopPondering();
+         
+         if (hit && ponderMove != null) {
+            lastPonderHit = true;
+            return ponderMove;
+         }
+      }
+      return getBestMove(getAvailableMoves(state), new State(state), botId, maxDepth);
+   }
+   
+   // Starts pondering on the position after the reply the last search expected
+   // from the opponent; state is the position with the opponent to move
+   public void ponder(State state, int botId) {
+      stopPondering();
+      
+      int reply = predictReply(state, 3 - botId);
+      if (reply == TranspositionTable.NO_MOVE)
+         return;
+      
+      final State position = new State(state);
+      position.makeMove(reply, 3 - botId);
+      if (position.isGameOver())
+         return;
+      
+      ponderHash = position.getHash();
+      ponderBotId = botId;
+      ponderStart = System.nanoTime();
+      ponderMove = null;
+      pondering = true;
+      
+      ponderThread = new Thread(new Runnable() {
+         public void run() {
+            Move move = getBestMove(getAvailableMoves(position), position, botId, maxDepth);
+            
+            // A search stopped during its first iteration has no move
+            if (lastDepth >= 0)
+               ponderMove = move;
+         }
+      }, "bot-ponder");
+      ponderThread.setDaemon(true);
+      ponderThread.start();
+   }
+   
+   // Stops pondering and waits for the search to unwind, which takes at most 1024 nodes
+   public void stopPondering() {
+      if (ponderThread == null)
+         return;
+      
+      stopped = true;
+      join(ponderThread, Long.MAX_VALUE);
+      stopped = false;
+      pondering = false;
+      ponderThread = null;
+   }
+   
+   // Waits up to nanos nanoseconds for the thread to finish
+   private static void join(Thread thread, long nanos) {
+      try {
+         if (nanos == Long.MAX_VALUE)
+            thread.join();
+         else if (nanos > 0)
+            thread.join(nanos / 1000000, (int) (nanos % 1000000));
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+   
+   // The move the table holds for player in the position, if it is legal
+   private int predictReply(State state, int player) {
+      long entry = table.probe(state.getHash() ^ State.getTurnKey(player));
+      if (entry == 0)
+         return TranspositionTable.NO_MOVE;
+      
+      int move = TranspositionTable.getMove(entry);
+      if (move == TranspositionTable.NO_MOVE || !state.isLegal(move))
+         return TranspositionTable.NO_MOVE;
+      return move;
+   }
+   
    public Move getBestMove(ArrayList<Move> legalMoves, int[][] board, int[][] macroboard, int botId, int stdDepth) {
+      return getBestMove(legalMoves, new State(board, macroboard), botId, stdDepth);
+   }
+   
+   // Searches one ply deeper each iteration until stdDepth is reached or the
+   // time limit runs out, and returns the best move of the last completed depth.
+   // The search makes and unmakes moves on state and leaves it as it was.
+   private Move getBestMove(ArrayList<Move> legalMoves, State state, int botId, int stdDepth) {
+      long startTime = System.nanoTime();
+      
+      lastSolved = false;
+      
       // If it's the first move return the middle square
-      if (isEmpty(board))
+      if (state.isEmpty()) {
+         setNodes(0);
+         lastDepth = 0;
+         lastScore = 0;
+         lastTime = System.nanoTime() - startTime;
          return new Move(4, 4);
+      }
+      
+      if (book != null) {
+         int entry = book.probe(state, botId);
+         
+         if (entry != 0) {
+            setNodes(0);
+            lastDepth = OpeningBook.getDepth(entry);
+            lastScore = OpeningBook.getScore(entry);
+            lastTime = System.nanoTime() - startTime;
+            return Move.fromIndex(OpeningBook.getMove(entry));
+         }
+      }
       
-      // Initialize with the first move
-      ArrayList<Move> bestMoves = new ArrayList<Move>();
+      // Pondering searches until it is stopped
+      long searchTime = pondering ? 0 : timeLimit;
       
-      int score;
-      int maxScore = -MAX_SCORE - 20;
+      // One deadline for the whole move, solver and search together
+      long stopTime = Long.MAX_VALUE;
+      if (searchTime > 0)
+         stopTime = startTime + searchTime * 1000000;
       
+      // The solver gets half the time, an unfinished solve leaves the rest to
+      // the search. It can't be stopped, so it doesn't ponder.
+      long solverNodes = 0;
+      if (!pondering && isEndGame(state, solverThreshold)) {
+         long solveDeadline = searchTime > 0 ? startTime + searchTime * 500000 : Long.MAX_VALUE;
+         
+         if (solver.solve(state, botId, solveDeadline)) {
+            setNodes(solver.getNodes());
+            lastSolved = true;
+            lastDepth = state.countOpenCells();
+            lastScore = toSearchScore(solver.getScore());
+            lastTime = System.nanoTime() - startTime;
+            return Move.fromIndex(solver.getMove());
+         }
+         solverNodes = solver.getNodes();
+      }
       
-      State possibleState;
+      // Scores in the table are from botId's point of view
+      if (tableBotId != botId) {
+         table.clear();
+         tableBotId = botId;
+      }
+      table.newSearch();
       
-      //System.err.println("Macroboard: " + toString(macroboard));
-      //System.err.println("Number of legal moves: " + legalMoves.size());
+      rootMoveCount = legalMoves.size();
+      for (int i = 0; i < rootMoveCount; i++)
+         rootMoves[i] = legalMoves.get(i).toIndex();
       
-      boolean freeMove = isFreeMove(macroboard);
+      Future<?>[] results = startHelpers(state, botId, stdDepth, stopTime);
       
-      int startTime = (int) System.currentTimeMillis();
-      int timePassed;
+      SearchEvent event = new SearchEvent();
+      event.begin();
       
-      // Find what the ID of the opposite player is
-      int oppositePlayer = getOppositePlayer(botId);
+      // The first iteration always completes so there is a move to return
+      int bestMove = iterate(state, botId, 0, stdDepth, Long.MAX_VALUE, stopTime);
+      
+      // Once the main search is done the helpers stop, and the deepest result wins
+      for (int i = 0; i < results.length; i++)
+         helpers[i].stopped = true;
       
-      for (int i = 0; i < legalMoves.size(); i++) {
-         possibleState = generateState(legalMoves.get(i), botId, board, macroboard);
+      for (int i = 0; i < results.length; i++) {
+         try {
+            results[i].get();
+         }
+         catch (InterruptedException | ExecutionException e) {
+            continue;
+         }
          
-         timePassed = (int) System.currentTimeMillis() - startTime;
+         if (helpers[i].lastDepth > lastDepth) {
+            bestMove = helpers[i].lastMove;
+            lastDepth = helpers[i].lastDepth;
+            lastScore = helpers[i].lastScore;
+         }
+      }
+      
+      // An unfinished solve's nodes and time count toward this search
+      nodes += solverNodes;
+      lastTime = System.nanoTime() - startTime;
+      recordStatistics(event);
+      return Move.fromIndex(bestMove);
+   }
+   
+   private void recordStatistics(SearchEvent event) {
+      long nodes = getNodes();
+      long cutoffs = getCutoffs();
+      long hits = getTableHits(), misses = getTableMisses();
+      
+      stats.record(nodes, getEvaluations(), cutoffs, getFirstMoveCutoffs(), hits, misses, getBranchingFactor(), lastDepth, lastTime);
+      
+      if (event.shouldCommit()) {
+         event.depth = lastDepth;
+         event.score = lastScore;
+         event.nodes = nodes;
+         event.evaluations = getEvaluations();
+         event.cutoffs = cutoffs;
+         event.firstMoveCutoffRate = cutoffs > 0 ? (double) getFirstMoveCutoffs() / cutoffs : 0;
+         event.branchingFactor = getBranchingFactor();
+         event.tableHitRate = hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+         event.threads = threads;
+         event.commit();
+      }
+   }
+   
+   // Counts the nodes of a result that didn't come from the search
+   private void setNodes(long count) {
+      nodes = count;
+      for (int i = 0; i < helpers.length; i++)
+         helpers[i].nodes = 0;
+   }
+   
+   // A proven win or loss in n plies scores like a search finding it n plies deep
+   private int toSearchScore(int solverScore) {
+      int distance = EndgameSolver.getDistance(solverScore);
+      
+      if (solverScore > 0)
+         return MAX_SCORE + State.MAX_MOVES - distance;
+      else if (solverScore < 0)
+         return -MAX_SCORE - State.MAX_MOVES + distance;
+      return 0;
+   }
+   
+   private Future<?>[] startHelpers(State state, int botId, int stdDepth, long stopTime) {
+      Future<?>[] results = new Future<?>[helpers.length];
+      
+      for (int i = 0; i < helpers.length; i++) {
+         final Bot helper = helpers[i];
+         final State helperState = new State(state);
          
-         int depth = stdDepth;
+         // Half of the helpers start a ply deeper, and each tries the root
+         // moves in its own order, so they don't all search the same tree
+         final int firstDepth = 1 + i % 2;
+         helper.rootMoveCount = rootMoveCount;
+         for (int j = 0; j < rootMoveCount; j++) {
+            int swap = helper.r.nextInt(j + 1);
+            helper.rootMoves[j] = helper.rootMoves[swap];
+            helper.rootMoves[swap] = rootMoves[j];
+         }
          
-         // If we have reached endgame, increase the search depth
-         if (isEndGame(possibleState.getBoard(), possibleState.getMacroboard(), 30) && timePassed < 5000) {
-            depth += 1;
+         helper.stopped = false;
+         results[i] = pool.submit(new Runnable() {
+            public void run() {
+               helper.iterate(helperState, botId, firstDepth, stdDepth, stopTime, stopTime);
+            }
+         });
+      }
+      return results;
+   }
+   
+   // The iterative deepening loop. The deadline only applies from the second
+   // iteration on, so the first can be made to always complete.
+   private int iterate(State state, int botId, int firstDepth, int stdDepth, long firstDeadline, long stopTime) {
+      deadline = firstDeadline;
+      aborted = false;
+      nodes = 0;
+      tableHits = tableMisses = 0;
+      evaluations = cutoffs = firstMoveCutoffs = 0;
+      lastIterationNodes = previousIterationNodes = 0;
+      lastDepth = -1;
+      lastMove = TranspositionTable.NO_MOVE;
+      resetOrdering();
+      
+      for (int depth = firstDepth; depth <= stdDepth; depth++) {
+         long startNodes = nodes;
+         
+         // Aspiration window around the last iteration's score. A side the
+         // score falls on is opened all the way and the depth searched again.
+         int alpha = INITIAL_ALPHA, beta = INITIAL_BETA;
+         if (lastDepth >= 0 && aspirationWindow > 0) {
+            alpha = lastScore - aspirationWindow;
+            beta = lastScore + aspirationWindow;
          }
-         else if (timePassed < 5000 && isEndGame(possibleState.getBoard(), possibleState.getMacroboard(), 60)) {
-            
+         
+         int move = searchRoot(state, botId, depth, alpha, beta);
+         
+         while (!aborted && (lastScore <= alpha || lastScore >= beta)) {
+            if (lastScore <= alpha)
+               alpha = INITIAL_ALPHA;
+            else
+               beta = INITIAL_BETA;
+            move = searchRoot(state, botId, depth, alpha, beta);
          }
          
-         score = minimax(possibleState, botId, oppositePlayer, depth, INITIAL_ALPHA, INITIAL_BETA);
+         if (aborted)
+            break;
          
-         //System.err.println(timePassed + " Milliseconds passed");
+         previousIterationNodes = lastIterationNodes;
+         lastIterationNodes = nodes - startNodes;
+         lastMove = move;
+         lastDepth = depth;
+         deadline = stopTime;
          
-         Move move = legalMoves.get(i);
-         //System.err.println("Move " + move.getX() + " " + move.getY() + " #" + i + ": " + score);
+         // Stop early once a forced result has been found
+         if (Math.abs(lastScore) >= WIN_THRESHOLD || System.nanoTime() >= deadline)
+            break;
+         if (nodeLimit > 0 && nodes >= nodeLimit)
+            break;
+      }
+      
+      return lastMove;
+   }
+   
+   // Searches the root inside the window (alpha, beta) and returns the best
+   // move. lastScore is exact when it lies inside the window, otherwise it is
+   // only a bound and the caller has to search again with a wider window.
+   private int searchRoot(State state, int botId, int depth, int alpha, int beta) {
+      iterationDepth = depth;
+      
+      // Search the move the table remembers first
+      long rootKey = state.getHash() ^ State.getTurnKey(botId);
+      long entry = table.probe(rootKey);
+      
+      if (entry != 0) {
+         int hashMove = TranspositionTable.getMove(entry);
+         
+         for (int i = 1; i < rootMoveCount; i++) {
+            if (rootMoves[i] == hashMove) {
+               rootMoves[i] = rootMoves[0];
+               rootMoves[0] = hashMove;
+               break;
+            }
+         }
+      }
+      
+      // The moves sharing the best score
+      int bestCount = 0;
+      
+      int score;
+      int maxScore = INITIAL_ALPHA;
+      
+      // Find what the ID of the opposite player is
+      int oppositePlayer = getOppositePlayer(botId);
+      evaluator.reset(state);
+      
+      for (int i = 0; i < rootMoveCount && maxScore < beta; i++) {
+         int move = rootMoves[i];
+         state.makeMove(move, botId);
+         evaluator.makeMove(state, move / 9);
+         
+         // Alpha is shared between the root moves, one below the best score so
+         // far so that moves tying it still get an exact score
+         int low = Math.max(alpha, maxScore - 1);
+         
+         if (i == 0)
+            score = minimax(state, botId, oppositePlayer, depth, alpha, beta);
+         else {
+            score = minimax(state, botId, oppositePlayer, depth, low, low + 1);
+            if (score > low && score < beta && !aborted)
+               score = minimax(state, botId, oppositePlayer, depth, low, beta);
+         }
+         state.unmakeMove();
+         evaluator.unmakeMove(state);
+         
+         if (aborted)
+            return TranspositionTable.NO_MOVE;
          
          if (score > maxScore) {
             maxScore = score;
-            // Find the actual function for clearing
-            bestMoves.clear();
-            bestMoves.add(legalMoves.get(i));
+            bestCount = 0;
+            bestRootMoves[bestCount++] = move;
          }
          else if (score == maxScore) {
-            bestMoves.add(legalMoves.get(i));
+            bestRootMoves[bestCount++] = move;
          }
       }
       
-      return bestMoves.get(r.nextInt(bestMoves.size()));
+      int bound = TranspositionTable.EXACT;
+      if (maxScore <= alpha)
+         bound = TranspositionTable.UPPER;
+      else if (maxScore >= beta)
+         bound = TranspositionTable.LOWER;
+      
+      int bestMove = bestRootMoves[r.nextInt(bestCount)];
+      table.store(rootKey, depth + 1, bound, toTableScore(maxScore, depth + 1), bestMove);
+      lastScore = maxScore;
+      
+      return bestMove;
    }
    
    // Returns whether or not the player can move anywhere on the board
@@ -123,33 +551,75 @@ public class Bot {
    
    // Returns a score for a given node
    // Uses alpha beta pruning to reduce the size of the game tree
+   // The state is searched in place: every move made is unmade before returning
    public int minimax(State state, int botId, int player, int depth, int alpha, int beta) {
-      // Count how many -1 values are given to the opponent
-      // Give higher score for lower amount of -1 values
+      // Check the clock every 1024 nodes, an aborted search unwinds without storing anything
+      if ((++nodes & 1023) == 0 && (stopped || System.nanoTime() >= deadline))
+         aborted = true;
+      if (aborted)
+         return 0;
       
-      // Transform the 2D arrays into 1D
-      int[] macroboard = transformMacroboard(state.getMacroboard());
+      // Find the oppositePlayer
+      int oppositePlayer = getOppositePlayer(player);
       
       // Test for terminal conditions
-      if (isWin(macroboard, botId)) {
+      if (Patterns.isWin(state.getMacro(botId))) {
          return MAX_SCORE + depth;
       }
-      else if (isLose(macroboard, botId)) {
+      else if (Patterns.isWin(state.getMacro(getOppositePlayer(botId)))) {
          return -MAX_SCORE -  depth;
       }
-      else if (isTie(macroboard)) {
+      else if (state.getDecided() == State.FULL) {
          return 0;
       }
       else if (depth == 0) {
-         return evaluationFunction(state, botId);
+         evaluations++;
+         return evaluator.evaluate(botId);
       }
       
-      // Find the oppositePlayer
-      int oppositePlayer = getOppositePlayer(player);
+      // Probe the transposition table
+      long key = state.getHash() ^ State.getTurnKey(player);
+      long entry = table.probe(key);
+      int hashMove = TranspositionTable.NO_MOVE;
+      
+      if (entry == 0)
+         tableMisses++;
+      else {
+         tableHits++;
+         hashMove = TranspositionTable.getMove(entry);
+         
+         if (TranspositionTable.getDepth(entry) >= depth) {
+            int tableScore = fromTableScore(TranspositionTable.getScore(entry), depth);
+            int bound = TranspositionTable.getBound(entry);
+            
+            if (bound == TranspositionTable.EXACT)
+               return tableScore;
+            else if (bound == TranspositionTable.LOWER)
+               alpha = Math.max(alpha, tableScore);
+            else
+               beta = Math.min(beta, tableScore);
+            
+            if (beta <= alpha)
+               return tableScore;
+         }
+      }
+      
+      int originalAlpha = alpha, originalBeta = beta;
+      int ply = state.getPly();
+      int[] moves = moveStack[ply];
+      int moveCount = state.generateMoves(moves);
+      
+      orderMoves(state, moves, moveCount, hashMove, player);
+      
+      // Macroboard two-in-a-rows before the move, to spot moves that make or block one
+      int decided = state.getDecided();
+      int myThreats = Patterns.getMaskThreats(state.getMacro(player), decided & ~state.getMacro(player));
+      int theirThreats = Patterns.getMaskThreats(state.getMacro(oppositePlayer), decided & ~state.getMacro(oppositePlayer));
+      // Extensions stop halfway down the iteration's depth, so a line can't grow without end
+      boolean canExtend = extensions && 2 * ply <= iterationDepth;
       
-      ArrayList<Move> legalMoves = getAvailableMoves(state);
-      State possibleState;
       int stateScore;
+      int bestMove = TranspositionTable.NO_MOVE;
       
       // Maximizing player
       if (player == botId)
@@ -157,26 +627,79 @@ public class Bot {
       else
          stateScore = INITIAL_BETA;
       
-      for (int i = 0; i < legalMoves.size(); i++) {
-         possibleState = generateState(legalMoves.get(i), player, state.getBoard(), state.getMacroboard());
+      for (int i = 0; i < moveCount; i++) {
+         int move = moves[i];
+         boolean freeMove = givesFreeMove(state, move, player, decided);
+         
+         state.makeMove(move, player);
+         evaluator.makeMove(state, move / 9);
+         
+         // A move that decides its board may make or block a macroboard two-in-a-row
+         boolean decidesBoard = state.getDecided() != decided;
+         boolean macroThreat = false;
+         if (decidesBoard) {
+            int nowDecided = state.getDecided();
+            macroThreat = Patterns.getMaskThreats(state.getMacro(player), nowDecided & ~state.getMacro(player)) > myThreats
+               || Patterns.getMaskThreats(state.getMacro(oppositePlayer), nowDecided & ~state.getMacro(oppositePlayer)) < theirThreats;
+         }
+         
+         int newDepth = depth - 1;
+         if (canExtend && (freeMove || macroThreat))
+            newDepth++;
+         
+         // Late quiet moves are searched shallower first, and at full depth
+         // only when they turn out better than expected
+         int reduction = 0;
+         if (lateMoveReduction > 0 && i >= LATE_MOVE_COUNT && depth >= 3 && newDepth < depth && !decidesBoard
+               && move != hashMove && move != killers[ply][0] && move != killers[ply][1])
+            reduction = Math.min(lateMoveReduction, newDepth);
+         
+         // Principal variation search: after the first move, a null window only
+         // proves a move is no better, and the few that are get searched again
+         int score;
+         if (i == 0)
+            score = minimax(state, botId, oppositePlayer, newDepth, alpha, beta);
+         else {
+            int low = player == botId ? alpha : beta - 1;
+            score = minimax(state, botId, oppositePlayer, newDepth - reduction, low, low + 1);
+            
+            if (reduction > 0 && (player == botId ? score > alpha : score < beta) && !aborted)
+               score = minimax(state, botId, oppositePlayer, newDepth, low, low + 1);
+            
+            if (score > alpha && score < beta && !aborted)
+               score = minimax(state, botId, oppositePlayer, newDepth, alpha, beta);
+         }
+         state.unmakeMove();
+         evaluator.unmakeMove(state);
+         
+         if (aborted)
+            return 0;
          
          // We want to maximize the value of the state
          if (player == botId) {
-            stateScore = Math.max(stateScore, minimax(possibleState, botId, oppositePlayer, depth - 1, alpha, beta));
+            if (score > stateScore) {
+               stateScore = score;
+               bestMove = move;
+            }
             
             alpha = Math.max(alpha, stateScore);
-            
-            if (beta <= alpha)
-               break;
          }
          // The opponent wants to minimze the value of the state
          else {
-            stateScore = Math.min(stateScore, minimax(possibleState, botId, oppositePlayer, depth - 1, alpha, beta));
+            if (score < stateScore) {
+               stateScore = score;
+               bestMove = move;
+            }
             
             beta = Math.min(beta, stateScore);
-            
-            if (beta <= alpha)
-               break;
+         }
+         
+         if (beta <= alpha) {
+            cutoffs++;
+            if (i == 0)
+               firstMoveCutoffs++;
+            recordCutoff(ply, player, move, depth);
+            break;
          }
       }
       
@@ -185,81 +708,384 @@ public class Bot {
          System.err.println("Bug, Depth: " + depth);
          return 0;
       }
+      
+      int bound = TranspositionTable.EXACT;
+      if (stateScore <= originalAlpha)
+         bound = TranspositionTable.UPPER;
+      else if (stateScore >= originalBeta)
+         bound = TranspositionTable.LOWER;
+      table.store(key, depth, bound, toTableScore(stateScore, depth), bestMove);
          
       return stateScore;
    }
    
-   public double localBoardMultiplier(int x, int y) {
+   // Sorts the moves: the table's best move, then the killer moves, then by
+   // history score. Moves that give the opponent a free move go last.
+   private void orderMoves(State state, int[] moves, int moveCount, int hashMove, int player) {
+      int ply = state.getPly();
+      int[] order = orderStack[ply];
+      int decided = state.getDecided();
+      
+      for (int i = 0; i < moveCount; i++) {
+         int move = moves[i];
+         
+         if (move == hashMove)
+            order[i] = Integer.MAX_VALUE;
+         else if (!moveOrdering)
+            order[i] = 0;
+         else {
+            if (move == killers[ply][0])
+               order[i] = 1 << 29;
+            else if (move == killers[ply][1])
+               order[i] = (1 << 29) - 1;
+            else
+               order[i] = history[player][move];
+            
+            if (givesFreeMove(state, move, player, decided))
+               order[i] -= 1 << 30;
+         }
+      }
+      
+      // Insertion sort, highest first
+      for (int i = 1; i < moveCount; i++) {
+         int move = moves[i];
+         int score = order[i];
+         int j = i - 1;
+         
+         while (j >= 0 && order[j] < score) {
+            moves[j + 1] = moves[j];
+            order[j + 1] = order[j];
+            j--;
+         }
+         moves[j + 1] = move;
+         order[j + 1] = score;
+      }
+   }
    
-      // Center: 1.6; Corner: 1.2; Side: .8
-      if (x == 0) {
-         if (y == 1)
-            return .7;
-         else
-            return 1.2;
+   // Whether the board the move sends the opponent to is decided, counting
+   // the case where the move decides that board itself
+   private boolean givesFreeMove(State state, int move, int player, int decided) {
+      int board = move / 9;
+      int cell = move % 9;
+      
+      if ((decided & (1 << cell)) != 0)
+         return true;
+      if (cell != board)
+         return false;
+      
+      return Patterns.isWin(state.getCells(player, board) | (1 << cell)) || state.getEmpty(board) == (1 << cell);
+   }
+   
+   private void recordCutoff(int ply, int player, int move, int depth) {
+      if (!moveOrdering)
+         return;
+      
+      if (killers[ply][0] != move) {
+         killers[ply][1] = killers[ply][0];
+         killers[ply][0] = move;
       }
-      else if (x == 1) {
-         // Center
-         if (y == 1) 
-            return 1.6;
-         else if (y == 0)
-            return .7;
-         else  
-            return .8;
+      // Capped below the killer scores
+      history[player][move] = Math.min(history[player][move] + depth * depth, (1 << 28) - 1);
+   }
+   
+   // Clears the killers and ages the history before a new search
+   private void resetOrdering() {
+      for (int ply = 0; ply < killers.length; ply++) {
+         killers[ply][0] = TranspositionTable.NO_MOVE;
+         killers[ply][1] = TranspositionTable.NO_MOVE;
       }
-      else if (x == 2) {
-         if (y == 1)
-            return .8;
-         else
-            return 1.2;
+      for (int player = 1; player <= 2; player++) {
+         for (int move = 0; move < State.MAX_MOVES; move++)
+            history[player][move] /= 2;
+      }
+   }
+   
+   // Win scores depend on the depth they were found at, so they are stored
+   // as the distance from the node and converted back when probed
+   private int toTableScore(int score, int depth) {
+      if (score >= WIN_THRESHOLD)
+         return score - depth;
+      else if (score <= -WIN_THRESHOLD)
+         return score + depth;
+      return score;
+   }
+   
+   private int fromTableScore(int score, int depth) {
+      if (score >= WIN_THRESHOLD)
+         return score + depth;
+      else if (score <= -WIN_THRESHOLD)
+         return score - depth;
+      return score;
+   }
+   
+   // Seeds the Random that breaks ties between equal moves, so searches can be
+   // reproduced. Helpers get seeds derived from it.
+   public void setSeed(long seed) {
+      r.setSeed(seed);
+      for (int i = 0; i < helpers.length; i++)
+         helpers[i].r.setSeed(seed + i + 1);
+   }
+   
+   public void setTimeLimit(long timeLimit) {
+      this.timeLimit = timeLimit;
+   }
+   
+   public long getTimeLimit() {
+      return timeLimit;
+   }
+   
+   // Book probed before every search, null for none
+   public void setOpeningBook(OpeningBook book) {
+      this.book = book;
+   }
+   
+   // getBestMove solves positions with fewer open cells than this exactly, 0 to never solve
+   public void setSolverThreshold(int solverThreshold) {
+      this.solverThreshold = solverThreshold;
+      if (solverThreshold > 0 && solver == null)
+         solver = new EndgameSolver(SOLVER_HASH_SIZE);
+   }
+   
+   public EndgameSolver getSolver() {
+      return solver;
+   }
+   
+   // Deepest iteration getBestMove(State, int) searches, in stdDepth units
+   public void setMaxDepth(int maxDepth) {
+      this.maxDepth = maxDepth;
+   }
+   
+   // Node budget of a search: the iteration running when it is spent is
+   // finished and no deeper one started, so results don't depend on the clock
+   public void setNodeLimit(long nodeLimit) {
+      this.nodeLimit = nodeLimit;
+   }
+   
+   // Weights the evaluation scores with. The table is cleared, as its scores
+   // came from the old ones.
+   public void setWeights(EvaluationWeights weights) {
+      this.weights = weights;
+      evaluator = new Evaluator(this);
+      for (int i = 0; i < helpers.length; i++) {
+         helpers[i].weights = weights;
+         helpers[i].evaluator = new Evaluator(helpers[i]);
+      }
+      table.clear();
+   }
+   
+   public EvaluationWeights getWeights() {
+      return weights;
+   }
+   
+   // Line of play the table holds after the last search, from the move
+   // returned, for botId to move in state; at most lastDepth + 1 moves
+   public int getPrincipalVariation(State state, int botId, int bestMove, int[] line) {
+      State position = new State(state);
+      int player = botId;
+      int length = 0;
+      int move = bestMove;
+      
+      while (move != TranspositionTable.NO_MOVE && length < line.length && length <= Math.max(lastDepth, 0)) {
+         line[length++] = move;
+         position.makeMove(move, player);
+         
+         if (position.isGameOver())
+            break;
+         player = 3 - player;
+         move = predictReply(position, player);
+      }
+      return length;
+   }
+   
+   // Depth of the last completed iteration, in the units of getBestMove's stdDepth
+   public int getLastDepth() {
+      return lastDepth;
+   }
+   
+   // Score of the move returned by the last search, from the bot's point of view
+   public int getLastScore() {
+      return lastScore;
+   }
+   
+   // Turns killer/history ordering on or off; the table's move is always tried first
+   public void setMoveOrdering(boolean moveOrdering) {
+      this.moveOrdering = moveOrdering;
+      for (int i = 0; i < helpers.length; i++)
+         helpers[i].moveOrdering = moveOrdering;
+   }
+   
+   public void setAspirationWindow(int aspirationWindow) {
+      this.aspirationWindow = aspirationWindow;
+      for (int i = 0; i < helpers.length; i++)
+         helpers[i].aspirationWindow = aspirationWindow;
+   }
+   
+   // Plies late quiet moves are reduced by, 0 to search every move to full depth
+   public void setLateMoveReduction(int lateMoveReduction) {
+      this.lateMoveReduction = lateMoveReduction;
+      for (int i = 0; i < helpers.length; i++)
+         helpers[i].lateMoveReduction = lateMoveReduction;
+   }
+   
+   public void setExtensions(boolean extensions) {
+      this.extensions = extensions;
+      for (int i = 0; i < helpers.length; i++)
+         helpers[i].extensions = extensions;
+   }
+   
+   // Number of threads getBestMove searches with, including the caller's
+   public void setThreads(int threads) {
+      if (pool != null)
+         pool.shutdownNow();
+      
+      this.threads = Math.max(1, threads);
+      helpers = new Bot[this.threads - 1];
+      pool = null;
+      
+      for (int i = 0; i < helpers.length; i++) {
+         helpers[i] = new Bot(table);
+         helpers[i].moveOrdering = moveOrdering;
+         helpers[i].aspirationWindow = aspirationWindow;
+         helpers[i].lateMoveReduction = lateMoveReduction;
+         helpers[i].extensions = extensions;
+         helpers[i].weights = weights;
+         helpers[i].evaluator = new Evaluator(helpers[i]);
+      }
+      
+      if (helpers.length > 0) {
+         pool = Executors.newFixedThreadPool(helpers.length, runnable -> {
+            Thread thread = new Thread(runnable, "bot-helper");
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+   }
+   
+   public int getThreads() {
+      return threads;
+   }
+   
+   // Nodes searched by all threads during the last search
+   public long getNodes() {
+      long total = nodes;
+      for (int i = 0; i < helpers.length; i++)
+         total += helpers[i].nodes;
+      return total;
+   }
+   
+   public long getTableHits() {
+      long total = tableHits;
+      for (int i = 0; i < helpers.length; i++)
+         total += helpers[i].tableHits;
+      return total;
+   }
+   
+   public long getTableMisses() {
+      long total = tableMisses;
+      for (int i = 0; i < helpers.length; i++)
+         total += helpers[i].tableMisses;
+      return total;
+   }
+   
+   // Leaves evaluated by all threads during the last search
+   public long getEvaluations() {
+      long total = evaluations;
+      for (int i = 0; i < helpers.length; i++)
+         total += helpers[i].evaluations;
+      return total;
+   }
+   
+   // Beta cutoffs of all threads during the last search
+   public long getCutoffs() {
+      long total = cutoffs;
+      for (int i = 0; i < helpers.length; i++)
+         total += helpers[i].cutoffs;
+      return total;
+   }
+   
+   // Cutoffs caused by the first move searched; the more, the better the move ordering
+   public long getFirstMoveCutoffs() {
+      long total = firstMoveCutoffs;
+      for (int i = 0; i < helpers.length; i++)
+         total += helpers[i].firstMoveCutoffs;
+      return total;
+   }
+   
+   // Growth in nodes from the second to last iteration to the last, on the main thread
+   public double getBranchingFactor() {
+      return previousIterationNodes > 0 ? (double) lastIterationNodes / previousIterationNodes : 0;
+   }
+   
+   public SearchStats getStats() {
+      return stats;
+   }
+   
+   public String getSearchInfo() {
+      if (lastSolved)
+         return solver.getSearchInfo();
+      if (lastPonderHit)
+         return "ponder hit, depth " + lastDepth + ", score " + lastScore + ", " + getNodes() + " nodes";
+      
+      long nodes = getNodes();
+      long nodesPerSecond = lastTime > 0 ? nodes * 1000000000L / lastTime : 0;
+      
+      long cutoffs = getCutoffs();
+      long firstMoveRate = cutoffs > 0 ? getFirstMoveCutoffs() * 100 / cutoffs : 0;
+      
+      return "depth " + lastDepth + ", score " + lastScore + ", " + nodes + " nodes, " + nodesPerSecond + " nodes/s, "
+         + String.format("ebf %.1f", getBranchingFactor()) + ", " + firstMoveRate + "% first move cutoffs, " + lastTime / 1000000 + " ms";
+   }
+   
+   public TranspositionTable getTable() {
+      return table;
+   }
+   
+   // Forgets what earlier searches left in the table and the move ordering,
+   // so the next search gives the same result as on a new Bot
+   public void clear() {
+      table.clear();
+      for (int player = 1; player <= 2; player++)
+         Arrays.fill(history[player], 0);
+      for (int i = 0; i < helpers.length; i++) {
+         Arrays.fill(helpers[i].history[1], 0);
+         Arrays.fill(helpers[i].history[2], 0);
       }
-      return 1;
    }
    
+   public double localBoardMultiplier(int x, int y) {
+      return weights.getBoardMultiplier(x * 3 + y);
+   }
+   
+   // Scores the state from scratch. The search uses Evaluator, which keeps
+   // the same score up to date incrementally.
    public int evaluationFunction(State state, int botId) {
-      int[][] macroboard = state.getMacroboard();
-      int[][] board = state.getBoard(); 
-       
       int score = 0;
       
        // Find the oppositePlayer
       int oppositePlayer = getOppositePlayer(botId);
+      int myBoards = state.getMacro(botId);
+      int oppositeBoards = state.getMacro(oppositePlayer);
       
-      for (int i = 0; i < 3; i++) {
-         for (int j = 0; j < 3; j++) {
-            if (macroboard[i][j] == oppositePlayer)
-               score -= 1000 * localBoardMultiplier(i, j);
-            else if (macroboard[i][j] == botId)
-               score += 1000 * localBoardMultiplier(i, j);
-         }
+      for (int b = 0; b < 9; b++) {
+         if ((oppositeBoards & (1 << b)) != 0)
+            score -= weights.getWonBoard() * localBoardMultiplier(b / 3, b % 3);
+         else if ((myBoards & (1 << b)) != 0)
+            score += weights.getWonBoard() * localBoardMultiplier(b / 3, b % 3);
       }
       
       // Check local board and macroboard for 2 in a rows
       
-      // Transform macroboard into 1D array
-      int[] flatMacroboard = transformMacroboard(macroboard);
-      
       // Increase score for my two in a rows
-      score += getMacroTwoInARows(flatMacroboard, botId) * 500;
+      score += getMacroTwoInARows(state, botId) * weights.getMacroTwoInARow();
       
       // Decrease score for opponents two in a rows
-      score -= getMacroTwoInARows(flatMacroboard, oppositePlayer) * 500;
+      score -= getMacroTwoInARows(state, oppositePlayer) * weights.getMacroTwoInARow();
       
       // Check local boards for two in a rows
-      int[] localBoardValues;
-      int activeLocalBoard;
-      
-      for (int i = 0; i < 9; i += 3) {
-         for (int j = 0; j < 9; j += 3) {
-            localBoardValues = getLocalBoardValues(i, j, board);
-            
-            // Find the active macroboard
-            activeLocalBoard = j + i / 3;
-            
-            // Give an increased score depending on what square the two in a row is in
-            score += getMicroTwoInARows(localBoardValues, flatMacroboard, botId, activeLocalBoard) * 10 * localBoardMultiplier(i / 3, j / 3);
-            score -= getMicroTwoInARows(localBoardValues, flatMacroboard, oppositePlayer, activeLocalBoard) * 10 * localBoardMultiplier(i / 3, j / 3);
-         }
+      for (int b = 0; b < 9; b++) {
+         // Give an increased score depending on what square the two in a row is in
+         score += getMicroTwoInARows(state, b, botId) * weights.getMicroTwoInARow() * localBoardMultiplier(b / 3, b % 3);
+         score -= getMicroTwoInARows(state, b, oppositePlayer) * weights.getMicroTwoInARow() * localBoardMultiplier(b / 3, b % 3);
       }
       
       
@@ -273,95 +1099,39 @@ public class Bot {
          return 1;
    }
    
-   // Takes 9 values and returns how many two in a rows there are
-   public int getMacroTwoInARows(int[] board, int player) {
-      int counter = 0;
-      int[] boardCopy;
+   // Returns how many undecided boards would complete a three in a row on the macroboard
+   public int getMacroTwoInARows(State state, int player) {
+      int boards = state.getMacro(player);
       
-      for (int i = 0; i < board.length; i++) {
-         if (board[i] > 0)
-            continue;
-         boardCopy = copyValues(board);
-         boardCopy[i] = player;
-         if (isWin(boardCopy, player)) {
-            counter++;
-         }
-      }
-      
-      return counter;
+      return Patterns.getMaskThreats(boards, state.getDecided() & ~boards);
    }
    
-   public int getMicroTwoInARows(int[] board, int[] macroboard, int player, int activeLocalBoard) {
-      int counter = 0;
-      int[] boardCopy, macroboardCopy;
-      int x, y;
-      
+   public int getMicroTwoInARows(State state, int board, int player) {
       int oppositePlayer = getOppositePlayer(player);
+      int counter = Patterns.getMaskThreats(state.getCells(player, board), state.getCells(oppositePlayer, board));
       
-      for (int i = 0; i < board.length; i++) {
-         if (board[i] > 0)
-            continue;
-         boardCopy = copyValues(board);
-         boardCopy[i] = player;
-         if (isWin(boardCopy, player)) {
-             // If this localboard could cause a win, increase score counter by more
-             macroboardCopy = copyValues(macroboard);
-             macroboardCopy[activeLocalBoard] = player;
-             if (isWin(macroboardCopy, player)) {
-                counter += 10;
-             }
-             else {
-                macroboardCopy = copyValues(macroboard);
-                macroboardCopy[activeLocalBoard] = oppositePlayer;
-                if (isWin(macroboardCopy, oppositePlayer)) {
-                   counter += 10;
-                }
-                else
-                  counter++;
-            }
-         }
-      }
+      // The macroboard square weighed for this board is the transpose of its
+      // index, which is how the evaluation has always been tuned
+      int macroCell = 1 << ((board % 3) * 3 + board / 3);
+      
+      // If this localboard could cause a win, every two in a row counts for more
+      if (Patterns.isWin(state.getMacro(player) | macroCell) || Patterns.isWin(state.getMacro(oppositePlayer) | macroCell))
+         counter *= 10;
       
       return counter;
    }
    
    public String singleToString(int[] numbers) {
-      String s = "";
+      StringBuilder s = new StringBuilder(numbers.length);
       for (int i = 0; i < numbers.length; i++) {
-         s += numbers[i];
+         s.append(numbers[i]);
       }
-      return s;
+      return s.toString();
    }
    
-   public int[] copyValues(int[] board) {
-      int[] newBoard = new int[board.length];
-      
-      for (int i = 0; i < board.length; i++) {
-         newBoard[i] = board[i];
-      }
-      return newBoard;
-   }
-   
-   public boolean isEndGame(int[][] board, int[][] macroboard, int numSpotsEmpty) {
-      int count = 0;
-      
-      // Count how many squares are open on the regular board not counting macroboard > 0
-      int[] localBoardValues;
-      
-      for (int i = 0; i < 3; i++) {
-         for (int j = 0; j < 3; j++) {
-            if (macroboard[i][j] <= 0) {
-               localBoardValues = getLocalBoardValues(i * 3, j * 3, board);
-               for (int k = 0; k < localBoardValues.length; k++) {
-                  if (localBoardValues[k] == 0)
-                     count++;
-               }
-            }
-         }
-      }
-      
-      // If less than n spots are empty
-      return count < numSpotsEmpty;
+   public boolean isEndGame(State state, int numSpotsEmpty) {
+      // If less than n spots are empty, not counting boards that are decided
+      return state.countOpenCells() < numSpotsEmpty;
    }
    
    public boolean multipleLocalBoardsAvailable(int[][] board) {
@@ -379,144 +1149,16 @@ public class Bot {
       return false;
    }
    
-   public int[] transformMacroboard(int[][] oldMacroboard) {
-      int[] newMacroboard = new int[9];
-      
-      for (int i = 0; i < 3; i++) {
-         for (int j = 0; j < 3; j++) {
-            newMacroboard[i * 3 + j] = oldMacroboard[i][j];
-         }
-      }
-      return newMacroboard;
-   }
-   
    // Player is 1 for me and 2 for opponent
    public State generateState(Move move, int player, int[][] board, int[][] macroboard) {
-      int[][] boardCopy = makeCopy(board);
-      int[][] macroboardCopy = makeCopy(macroboard);
-      
-      // Change the board
-      boardCopy[move.getX()][move.getY()] = player;
-      
-      //Change the macroboard
-      macroboardCopy = modifyMacroboard(move, player, macroboardCopy, boardCopy);
-      
-      return new State(boardCopy, macroboardCopy);
-   }
-   
-   public int[][] makeCopy(int[][] matrix) {
-      int [][] myInt = new int[matrix.length][];
-      for(int i = 0; i < matrix.length; i++)
-         myInt[i] = matrix[i].clone();
-      return myInt;
-   }
-   
-   public int[][] modifyMacroboard(Move move,int player, int[][] macroboard, int[][] board) {
-      // Make appropriate changes to the macroboard value that the move is within
-      // Find the local board that the move is within
-      int x = move.getX();
-      int y = move.getY();
-      
-      int[] localBoardValues = getLocalBoardValues(x, y, board);
-     
-      if (isWin(localBoardValues, player)) {
-         macroboard[x / 3][y / 3] = player;
-      }
-      else if (isLose(localBoardValues, player)) {
-         // Find the opposite player
-         if (player == 1) 
-            macroboard[x / 3][y / 3] = 2;
-         else
-            macroboard[x / 3][y / 3] = 1;
-      }
-      else if (isTie(localBoardValues)) {
-         macroboard[x / 3][y / 3] = 3;
-      }
-  
-      //Set the new -1 values (legal localBoards)
-      
-      // Get the positions within the local board
-      x = move.getX() % 3;
-      y = move.getY() % 3;
-      
-      // If this localboard has already been won
-      if (macroboard[x][y] != -1 && macroboard[x][y] != 0) {
-         // Set all 0s to -1s
-         for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-               if (macroboard[i][j] == 0)
-                  macroboard[i][j] = -1;
-            }
-         }
-      }
-      else {
-         // Set all -1s to 0s
-         // Set the local board to -1
-         for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-               if (macroboard[i][j] == -1)
-                  macroboard[i][j] = 0;
-            }
-         }
-         macroboard[x][y] = -1;
-      }
-      return macroboard;
-   }
-   
-   public int[] getLocalBoardValues(int x, int y, int[][] board) {
-      int[] localBoardValues = new int[9];
-      
-      int startX = x - x % 3;
-      int startY = y - y % 3;
-      
-      for (int i = 0; i < 3; i++) {
-         for (int j = 0; j < 3; j++) {
-            x = startX + j;
-            y = startY + i;
-            localBoardValues[i * 3 + j] = board[x][y];
-         }
-      }
-      return localBoardValues;
+      State state = new State(board, macroboard);
+      state.makeMove(State.toIndex(move.getX(), move.getY()), player);
+      return state;
    }
       
    // Takes in an int[] of 9 values and checks for win
    public static boolean isWin(int[] boardValues, int player) {
-      boolean win = true;
-      
-      // i = rows, j = columns
-      
-      // Check for wins within rows
-      for (int i = 0; i < 3; i++) {
-         win = true;
-         for (int j = 0; j < 3; j++) {
-            if (boardValues[i * 3 + j] != player) {
-               win = false;
-               break;
-            }
-         }
-         if (win)
-            return true;
-      }
-           
-      // Check for wins within columns
-      for (int j = 0; j < 3; j++) {
-         win = true;
-         for (int i = 0; i < 3; i++) {
-            if (boardValues[i * 3 + j] != player) {
-               win = false;
-               break;
-            }
-         }
-         if (win)
-            return true;
-      }
-      
-      // Check for wins within diagonals
-      if ((boardValues[0] == player && boardValues[4] == player && boardValues[8] == player) ||
-       (boardValues[2] == player && boardValues[4] == player && boardValues[6] == player))
-         return true;
-      
-      return false;
+      return Patterns.isWin(boardValues, player);
    }
    
    public boolean isLose(int[] boardValues, int player) {
@@ -536,7 +1178,7 @@ public class Bot {
       return true;
    }
    
-	public Boolean isInActiveMicroboard(int x, int y, int[][] macroboard) {
+	public boolean isInActiveMicroboard(int x, int y, int[][] macroboard) {
 	    return macroboard[(int) x/3][(int) y/3] == -1;
 	}
 	
@@ -556,18 +1198,18 @@ public class Bot {
 	 * @return : String with player names for every cell, or 'empty' when cell is empty.
 	 */
 	public String toString(int[][] board) {
-		String r = "";
+		StringBuilder r = new StringBuilder(board.length * board[0].length * 2);
 		int counter = 0;
 		for (int y = 0; y < board.length; y++) {
 			for (int x = 0; x < board[0].length; x++) {
 				if (counter > 0) {
-					r += ",";
+					r.append(',');
 				}
-				r += board[x][y];
+				r.append(board[x][y]);
 				counter++;
 			}
 		}
-		return r;
+		return r.toString();
 	}
 	
 	/**
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * BotStarter class
+ *
+ * Headless driver for the theaigames line protocol, reading commands from
+ * stdin and writing moves to stdout:
+ *
+ *   settings your_botid 1
+ *   settings timebank 10000
+ *   settings time_per_move 500
+ *   update game field 0,0,1,...      (81 cells, row by row)
+ *   update game macroboard -1,0,...  (9 boards, row by row)
+ *   action move 9500                 (answered with "place_move x y")
+ *
+ * Lines are read into a reused byte buffer and the numbers parsed straight
+ * from the bytes, so reading the field doesn't create strings. Only
+ * engine classes are loaded, never AWT or Swing, and the search
+ * statistics are only registered with JMX, which starts the platform
+ * MBean server, when the ultimate.stats property is set.
+ *
+ * Usage: java [-Dultimate.stats=true] BotStarter [mcts]
+ */
+
+public class BotStarter {
+   // Milliseconds kept back from every move for reading and writing
+   private static final int SAFETY_MARGIN = 50;
+
+   private static final byte[] BOT_ID = bytes("settings your_botid ");
+   private static final byte[] TIMEBANK = bytes("settings timebank ");
+   private static final byte[] TIME_PER_MOVE = bytes("settings time_per_move ");
+   private static final byte[] FIELD = bytes("update game field ");
+   private static final byte[] MACROBOARD = bytes("update game macroboard ");
+   private static final byte[] ACTION_MOVE = bytes("action move ");
+
+   private final InputStream in;
+   private final PrintStream out;
+   private final Engine engine;
+
+   private final byte[] buffer = new byte[1 << 16];
+   private int bufferLength, bufferPosition;
+   private byte[] line = new byte[1024];
+   private int lineLength;
+   // Where parseInt stopped reading
+   private int position;
+
+   private final int[][] board = new int[9][9];
+   private final int[][] macroboard = new int[3][3];
+   private int botId = 1;
+   private int timebank = 10000, timePerMove = 500;
+
+   public BotStarter(InputStream in, PrintStream out, Engine engine) {
+      this.in = in;
+      this.out = out;
+      this.engine = engine;
+   }
+
+   public void run() throws IOException {
+      while (readLine()) {
+         if (startsWith(ACTION_MOVE)) {
+            position = ACTION_MOVE.length;
+            Move move = findMove(parseInt());
+            out.print("place_move " + move.getX() + " " + move.getY() + "\n");
+            out.flush();
+         }
+         else if (startsWith(FIELD)) {
+            position = FIELD.length;
+            for (int y = 0; y < 9; y++) {
+               for (int x = 0; x < 9; x++)
+                  board[x][y] = parseInt();
+            }
+         }
+         else if (startsWith(MACROBOARD)) {
+            position = MACROBOARD.length;
+            for (int y = 0; y < 3; y++) {
+               for (int x = 0; x < 3; x++)
+                  macroboard[x][y] = parseInt();
+            }
+         }
+         else if (startsWith(BOT_ID)) {
+            position = BOT_ID.length;
+            botId = parseInt();
+         }
+         else if (startsWith(TIMEBANK)) {
+            position = TIMEBANK.length;
+            timebank = parseInt();
+         }
+         else if (startsWith(TIME_PER_MOVE)) {
+            position = TIME_PER_MOVE.length;
+            timePerMove = parseInt();
+         }
+      }
+   }
+
+   // Spends the move's own time plus a share of what is left in the bank
+   private Move findMove(int timeLeft) {
+      if (timeLeft <= 0)
+         timeLeft = timebank;
+
+      int budget = Math.min(timeLeft / 2, timePerMove + timeLeft / 10) - SAFETY_MARGIN;
+      engine.setTimeLimit(Math.max(10, budget));
+      return engine.getBestMove(new State(board, macroboard), botId);
+   }
+
+   // Reads the next line into line, without the line break
+   private boolean readLine() throws IOException {
+      lineLength = 0;
+
+      while (true) {
+         if (bufferPosition == bufferLength) {
+            bufferLength = in.read(buffer, 0, buffer.length);
+            bufferPosition = 0;
+
+            if (bufferLength <= 0)
+               return lineLength > 0;
+         }
+
+         byte b = buffer[bufferPosition++];
+         if (b == '\n')
+            return true;
+         if (b == '\r')
+            continue;
+
+         if (lineLength == line.length) {
+            byte[] longer = new byte[line.length * 2];
+            System.arraycopy(line, 0, longer, 0, lineLength);
+            line = longer;
+         }
+         line[lineLength++] = b;
+      }
+   }
+
+   private boolean startsWith(byte[] prefix) {
+      if (lineLength < prefix.length)
+         return false;
+
+      for (int i = 0; i < prefix.length; i++) {
+         if (line[i] != prefix[i])
+            return false;
+      }
+      return true;
+   }
+
+   // Parses the int at position and moves past it and one separator
+   private int parseInt() {
+      int value = 0;
+      boolean negative = false;
+
+      if (position < lineLength && line[position] == '-') {
+         negative = true;
+         position++;
+      }
+      while (position < lineLength && line[position] >= '0' && line[position] <= '9')
+         value = value * 10 + (line[position++] - '0');
+
+      position++;
+      return negative ? -value : value;
+   }
+
+   private static byte[] bytes(String s) {
+      byte[] result = new byte[s.length()];
+      for (int i = 0; i < s.length(); i++)
+         result[i] = (byte) s.charAt(i);
+      return result;
+   }
+
+   public static void main(String[] args) throws IOException {
+      Engine engine;
+      if (args.length > 0 && args[0].equals("mcts"))
+         engine = new MctsEngine();
+      else {
+         Bot bot = new Bot();
+         bot.setOpeningBook(OpeningBook.openDefault());
+         bot.setWeights(EvaluationWeights.openDefault());
+         bot.setSolverThreshold(EndgameSolver.DEFAULT_THRESHOLD);
+         if (Boolean.getBoolean("ultimate.stats"))
+            bot.getStats().register("minimax");
+         engine = bot;
+      }
+
+      new BotStarter(System.in, System.out, engine).run();
+   }
+}
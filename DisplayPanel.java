@@ -1,8 +1,21 @@
 import javax.swing.*;
 import java.awt.*;
-import java.awt.geom.*;
 import java.awt.event.*;
-import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * DisplayPanel class
+ *
+ * Draws the game and plays it against the engine. The game is driven by
+ * events: the board is only read and changed on the event dispatch thread,
+ * clicks are handled as they arrive, and the engine runs on a thread of its
+ * own that posts its moves back to the EDT.
+ *
+ * The board is drawn by a BoardRenderer, which redraws only what a move
+ * changed, and only that part of the panel is repainted. Given a second
+ * engine the panel plays the two against each other, for watching.
+ */
 
 public class DisplayPanel extends JPanel {
    private final int WIDTH = 800;
@@ -19,9 +32,41 @@ public class DisplayPanel extends JPanel {
    
    private int wins = 0, losses = 0, ties = 0;
    
-   private Bot bot;
+   private Engine engine;
+   // Plays player 1 when two engines are watched, null when the player does
+   private Engine opponent;
+   
+   private BoardRenderer renderer = new BoardRenderer(WIDTH, HEIGHT, offset, localBoardSize, gap);
+   private final Font font = new Font("TimesRoman", Font.PLAIN, 30);
+   // Height of the strip at the top the turn or result is shown in
+   private final int STATUS_HEIGHT = 70;
+   
+   // Log the game is recorded to, null for none
+   private GameRecorder recorder;
+   private int game;
+   private long turnStart;
+   
+   // Every engine call runs here, one at a time, so searches and pondering never overlap
+   private final ExecutorService engineThread = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "engine");
+      thread.setDaemon(true);
+      return thread;
+   });
+   
+   // Milliseconds the bot may think per move
+   private final int BOT_TIME = 2000;
+   // And per move when two engines play
+   private final int WATCH_TIME = 50;
+   
+   public DisplayPanel(Engine engine) {
+      this(engine, null, null);
+   }
+   
+   public DisplayPanel(Engine engine, GameRecorder recorder) {
+      this(engine, null, recorder);
+   }
    
-   public DisplayPanel() {
+   public DisplayPanel(Engine engine, Engine opponent, GameRecorder recorder) {
       setPreferredSize(new Dimension(WIDTH, HEIGHT));
       setBackground(Color.LIGHT_GRAY);
       
@@ -30,7 +75,19 @@ public class DisplayPanel extends JPanel {
       board = getStartingBoard(9, 0);
       playerOneTurn = getStartingPlayer();
       
-      bot = new Bot();
+      this.engine = engine;
+      this.opponent = opponent;
+      if (opponent == null)
+         engine.setTimeLimit(BOT_TIME);
+      else {
+         engine.setTimeLimit(WATCH_TIME);
+         opponent.setTimeLimit(WATCH_TIME);
+      }
+      
+      this.recorder = recorder;
+      if (recorder != null)
+         game = recorder.startGame(playerOneTurn ? 1 : 2);
+      turnStart = System.nanoTime();
       
       // Mouse listeners
       addMouseListener(new MouseAdapter() {
@@ -38,17 +95,22 @@ public class DisplayPanel extends JPanel {
             int x = e.getX();
             int y = e.getY();
             
-            if (playerOneTurn && !isGameOver()) {
-               makeMove(x, y);
-               repaint();
+            if (opponent == null && playerOneTurn && !isGameOver() && makeMove(x, y)) {
+               refresh();
+               
+               if (isGameOver())
+                  endGame();
+               else
+                  requestBotMove();
             }
          }
       });
       
-      repaint();
+      refresh();
    }
    
-   public void makeMove(int x, int y) {
+   // Returns whether the click was a legal move
+   public boolean makeMove(int x, int y) {
       int[] clickLocation = getClick(x, y);
       
       int moveX = clickLocation[0];
@@ -56,13 +118,17 @@ public class DisplayPanel extends JPanel {
       
       // Do nothing if the click is not within the board
       if (moveX == -1 || !isInActiveMicroboard(moveX, moveY, macroboard) || board[moveX][moveY] != 0)
-         return;
+         return false;
       
       board[moveX][moveY] = 1;
       
       // Make appropritate changes to macroboard
       modifyMacroboard(moveX, moveY);
       playerOneTurn = false;
+      
+      if (recorder != null)
+         recorder.recordMove(game, 1, State.toIndex(moveX, moveY), System.nanoTime() - turnStart, 0, 0);
+      return true;
    }
    
    public void modifyMacroboard(int x, int y) {
@@ -129,42 +195,7 @@ public class DisplayPanel extends JPanel {
 
    // Takes in an int[] of 9 values and checks for win
    public static boolean isWin(int[] boardValues, int player) {
-      boolean win = true;
-      
-      // i = rows, j = columns
-      
-      // Check for wins within rows
-      for (int i = 0; i < 3; i++) {
-         win = true;
-         for (int j = 0; j < 3; j++) {
-            if (boardValues[i * 3 + j] != player) {
-               win = false;
-               break;
-            }
-         }
-         if (win)
-            return true;
-      }
-           
-      // Check for wins within columns
-      for (int j = 0; j < 3; j++) {
-         win = true;
-         for (int i = 0; i < 3; i++) {
-            if (boardValues[i * 3 + j] != player) {
-               win = false;
-               break;
-            }
-         }
-         if (win)
-            return true;
-      }
-      
-      // Check for wins within diagonals
-      if ((boardValues[0] == player && boardValues[4] == player && boardValues[8] == player) ||
-       (boardValues[2] == player && boardValues[4] == player && boardValues[6] == player))
-         return true;
-      
-      return false;
+      return Patterns.isWin(boardValues, player);
    }
    
    public boolean isLose(int[] boardValues, int player) {
@@ -186,21 +217,16 @@ public class DisplayPanel extends JPanel {
    
    // Returns the tile within the board that the click is contained in
    public int[] getClick(int x, int y) {
-      for (int i = 0; i < 9; i++) {
-         for (int j = 0; j < 9; j++) {
-            int startX = offset + (i / 3) * (localBoardSize + gap) + (i % 3) * tileSize; 
-            int startY = offset + (j / 3) * (localBoardSize + gap) + (j % 3) * tileSize;
-            
-            if (x > startX && y > startY && x < startX + tileSize && y < startY + tileSize)
-               return new int[]{i, j};
-         }
-      }
+      int i = renderer.getTile(x);
+      int j = renderer.getTile(y);
       
       // If the click is not within a tile, return -1 values
-      return new int[]{-1, -1};
+      if (i == -1 || j == -1)
+         return new int[]{-1, -1};
+      return new int[]{i, j};
    }
    
-   public Boolean isInActiveMicroboard(int x, int y, int[][] macroboard) {
+   public boolean isInActiveMicroboard(int x, int y, int[][] macroboard) {
 	    return macroboard[(int) x/3][(int) y/3] == -1;
 	}
    
@@ -221,114 +247,56 @@ public class DisplayPanel extends JPanel {
       return board;
    }
    
+   // The board comes from the renderer's image; only the strip with the
+   // status is drawn here
    public void paint(Graphics g) {
-      super.paint(g);
-      
-      Graphics2D g2 = (Graphics2D) g;
-      
-      drawPieces(board, macroboard, g, g2);
-      drawBoard(g, g2);
+      g.drawImage(renderer.getImage(), 0, 0, null);
       
       g.setColor(Color.WHITE);
-      g.setFont(new Font("TimesRoman", Font.PLAIN, 30)); 
+      g.setFont(font);
       
+      String status;
       if (isGameOver()) {
-         int[] tMacro = transformMacroboard(macroboard);
-         if (isWin(tMacro, 1)) {
-            g.drawString("You Win", 350, 50);
-         }
-         else if (isWin(tMacro, 2)) {
-            g.drawString("You Lost", 345, 50);
-         }
-         else {
-            g.drawString("You Tied", 345, 50);
-         }
-      }
-      else {
-         if (playerOneTurn) {
-            g.drawString("Player Turn", 330, 50);
-         }
+         int winner = getWinner();
+         if (opponent != null)
+            status = winner == 1 ? "Red Wins" : winner == 2 ? "Blue Wins" : "Tied";
          else
-            g.drawString("Bot Turn", 345, 50);
-      }
-   }
-   
-   public void drawBoard(Graphics g, Graphics2D g2) {
-      for (int i = 0; i < 3; i++) {
-         for (int j = 0; j < 3; j++) {
-            int startX = offset + j * (localBoardSize + gap);
-            int startY = offset + i * (localBoardSize + gap);
-            
-            g.setColor(Color.BLACK);
-            g2.setStroke(new BasicStroke(1));
-            
-            if (macroboard[j][i] == 1) {
-               g2.setStroke(new BasicStroke(3));
-               g.setColor(Color.RED);
-               
-            }
-            else if (macroboard[j][i] == 2) {
-               g2.setStroke(new BasicStroke(3));
-               g.setColor(Color.BLUE);
-
-            }
-            else if (macroboard[j][i] == -1) {
-               g.setColor(Color.WHITE);
-            }
-            
-            // Draw 4 vertical lines and 4 horizontal lines
-            for (int k = 0; k < 4; k++) {
-               int step = (int) (k / 3.0 * localBoardSize);
-               g.drawLine(startX + step, startY, startX + step, startY  + localBoardSize);
-               g.drawLine(startX, startY  + step, startX + localBoardSize, startY + step);               
-            }
-         }
+            status = winner == 1 ? "You Win" : winner == 2 ? "You Lost" : "You Tied";
       }
+      else if (opponent != null)
+         status = playerOneTurn ? "Red Turn" : "Blue Turn";
+      else
+         status = playerOneTurn ? "Player Turn" : "Bot Turn";
+      
+      g.drawString(status, (WIDTH - g.getFontMetrics().stringWidth(status)) / 2, 50);
    }
    
-   public void drawPieces(int[][] board, int[][] macroboard, Graphics g, Graphics2D g2) {
-      // Board
-      
-      for (int i = 0; i < 9; i++) {
-         for (int j = 0; j < 9; j++) {
-            int startX = offset + (j / 3) * (localBoardSize + gap) + (j % 3) * tileSize; 
-            int startY = offset + (i / 3) * (localBoardSize + gap) + (i % 3) * tileSize;    
-                    
-            // Draw circle
-            if (board[j][i] == 1) {
-               g.setColor(Color.RED);
-               g.fillOval(startX + tileSize / 8, startY + tileSize / 8, tileSize * 3 / 4, tileSize * 3 / 4);
-               g.setColor(Color.LIGHT_GRAY);
-               g.fillOval(startX + tileSize / 4, startY + tileSize / 4, tileSize / 2, tileSize / 2);
-            }
-            
-            // Draw X
-            else if (board[j][i] == 2) {
-               g.setColor(Color.BLUE);
-               
-               g2.setStroke(new BasicStroke(8));
-               g2.draw(new Line2D.Float(startX + tileSize / 4, startY + tileSize / 4, startX + tileSize * 3 / 4, startY + tileSize * 3 / 4));
-               g2.draw(new Line2D.Float(startX + tileSize / 4, startY + tileSize * 3 / 4, startX + tileSize * 3 / 4, startY + tileSize * 1 / 4));
-               g2.setStroke(new BasicStroke(1));
-            }
-         }
-      }
+   // Brings the renderer up to date and repaints what changed and the status
+   private void refresh() {
+      Rectangle dirty = renderer.update(board, macroboard);
+      if (dirty != null)
+         repaint(dirty);
+      repaint(0, 0, WIDTH, STATUS_HEIGHT);
    }
    
    public String convertToString(int[][] board) {
-      String s = "";
+      StringBuilder s = new StringBuilder(board.length * board[0].length);
       for (int i = 0; i < board.length; i++) {
          for (int j = 0; j < board[0].length; j++) {
-            s += board[j][i];
+            s.append(board[j][i]);
          }
       }
       
-      return s;
+      return s.toString();
    }
    
    public boolean isGameOver() {
-      int[] tMacro = transformMacroboard(macroboard);
-      return isWin(tMacro, 1) || isWin(tMacro, 2) || isTie(tMacro);
+      return getWinner() != 0;
+   }
+   
+   // The winner, State.TIE for a tie, or 0 while the game goes on
+   public int getWinner() {
+      return new State(board, macroboard).getWinner();
    }
    
    public int[] transformMacroboard(int[][] oldMacroboard) {
@@ -352,29 +320,66 @@ public class DisplayPanel extends JPanel {
    }
    
    public void start() {
-      while (!isGameOver()) {
-         System.out.println(playerOneTurn);
-         if (!playerOneTurn) {
-            State currentState = new State(board, macroboard);
-            ArrayList<Move> moves = bot.getAvailableMoves(currentState);
-            Move bestMove;
-           
-            System.out.println("Getting Best Move");
-            long startTime = System.currentTimeMillis();
-            bestMove = bot.getBestMove(moves, currentState.getBoard(), currentState.getMacroboard(), 2, 6);
-            System.out.println(System.currentTimeMillis() - startTime);
-            
-            int moveX = bestMove.getX();
-            int moveY = bestMove.getY();
-            
-            board[moveX][moveY] = 2;
-            modifyMacroboard(moveX, moveY);
-            playerOneTurn = true;
-            
-            repaint();
-         }
+      SwingUtilities.invokeLater(() -> {
+         if ((!playerOneTurn || opponent != null) && !isGameOver())
+            requestBotMove();
+      });
+   }
+   
+   // Hands the position to the engine thread; the move comes back on the EDT
+   private void requestBotMove() {
+      final State currentState = new State(board, macroboard);
+      final int player = playerOneTurn ? 1 : 2;
+      final Engine mover = player == 1 ? opponent : engine;
+      
+      engineThread.execute(() -> {
+         long startTime = System.nanoTime();
+         Move bestMove = mover.getBestMove(currentState, player);
+         long time = System.nanoTime() - startTime;
+         int score = mover.getLastScore(), depth = mover.getLastDepth();
+         System.out.println(time / 1000000 + " ms, " + mover.getSearchInfo());
+         
+         SwingUtilities.invokeLater(() -> playBotMove(player, bestMove, time, score, depth));
+      });
+   }
+   
+   private void playBotMove(int player, Move bestMove, long time, int score, int depth) {
+      int moveX = bestMove.getX();
+      int moveY = bestMove.getY();
+      
+      board[moveX][moveY] = player;
+      modifyMacroboard(moveX, moveY);
+      playerOneTurn = player == 2;
+      refresh();
+      
+      if (recorder != null)
+         recorder.recordMove(game, player, State.toIndex(moveX, moveY), time, score, depth);
+      turnStart = System.nanoTime();
+      
+      if (isGameOver()) {
+         endGame();
+         return;
+      }
+      
+      // Watching, the other engine moves next
+      if (opponent != null) {
+         requestBotMove();
+         return;
       }
+      
+      // Think about the expected reply while the player does
+      final State currentState = new State(board, macroboard);
+      engineThread.execute(() -> engine.ponder(currentState, 2));
+   }
+   
+   private void endGame() {
+      engineThread.execute(() -> engine.stopPondering());
+      
+      if (recorder != null)
+         recorder.endGame(game, getWinner());
+      
       // Get rid of the white highlights on the board
       clearBoardSelections();
+      refresh();
    }
 }
\ No newline at end of file
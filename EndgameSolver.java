@@ -0,0 +1,331 @@
+import java.util.Random;
+
+/**
+ * EndgameSolver class
+ *
+ * Searches a position to the end of the game and proves whether the player
+ * to move wins, draws or loses, and how many plies the win or loss takes
+ * with best play. Scores are from the player to move's point of view:
+ * WIN - n for a win n plies away, -(WIN - n) for a loss and 0 for a draw.
+ *
+ * Alpha-beta is made to prune hard: results so far from the root they
+ * can't change the score are cut (mate distance pruning), a move that wins
+ * the game on the spot ends the node before anything is generated, and a
+ * position where neither player can complete a macroboard line any more is
+ * scored as a draw. Solved positions go into a table of their own, which
+ * keeps its entries from one solve to the next.
+ *
+ * Usage: java EndgameSolver [maxOpenCells] [positions] [seconds]
+ */
+
+public class EndgameSolver {
+   public static final int WIN = 1000;
+   // Open cell count below which solving takes well under a second, see main
+   public static final int DEFAULT_THRESHOLD = 24;
+   private static final int INFINITY = WIN + 1;
+
+   private final TranspositionTable cache;
+
+   // Moves and their ordering scores at each ply
+   private final int[][] moveStack = new int[State.MAX_MOVES + 1][State.MAX_MOVES];
+   private final int[][] orderStack = new int[State.MAX_MOVES + 1][State.MAX_MOVES];
+
+   private int rootPly;
+   private long deadline;
+   private boolean aborted;
+
+   private long nodes, lastTime;
+   private int lastScore, lastMove;
+
+   public EndgameSolver(int megabytes) {
+      cache = new TranspositionTable(megabytes);
+   }
+
+   // Solves the position for player, who is to move. Returns false if the
+   // deadline (a System.nanoTime value) passed first.
+   public boolean solve(State state, int player, long deadline) {
+      long startTime = System.nanoTime();
+      this.deadline = deadline;
+      aborted = false;
+      nodes = 0;
+      rootPly = state.getPly();
+      cache.newSearch();
+
+      int[] moves = moveStack[0];
+      int moveCount = state.generateMoves(moves);
+      long entry = cache.probe(state.getHash() ^ State.getTurnKey(player));
+      orderMoves(state, moves, moveCount, entry != 0 ? TranspositionTable.getMove(entry) : TranspositionTable.NO_MOVE, player);
+
+      int alpha = -INFINITY;
+      int bestMove = moves[0];
+
+      for (int i = 0; i < moveCount && alpha < WIN - 1; i++) {
+         state.makeMove(moves[i], player);
+         int score = -negamax(state, 3 - player, -INFINITY, -alpha);
+         state.unmakeMove();
+
+         if (aborted)
+            break;
+
+         if (score > alpha) {
+            alpha = score;
+            bestMove = moves[i];
+         }
+      }
+
+      lastTime = System.nanoTime() - startTime;
+      if (aborted)
+         return false;
+
+      cache.store(state.getHash() ^ State.getTurnKey(player), state.countOpenCells(), TranspositionTable.EXACT, alpha, bestMove);
+      lastScore = alpha;
+      lastMove = bestMove;
+      return true;
+   }
+
+   private int negamax(State state, int player, int alpha, int beta) {
+      if ((++nodes & 1023) == 0 && System.nanoTime() >= deadline)
+         aborted = true;
+      if (aborted)
+         return 0;
+
+      int ply = state.getPly() - rootPly;
+      int opponent = 3 - player;
+      int tie = state.getMacro(State.TIE);
+
+      if (Patterns.isWin(state.getMacro(opponent)))
+         return -(WIN - ply);
+      if (state.getDecided() == State.FULL)
+         return 0;
+
+      // Nobody can complete a macroboard line, so the game is a draw
+      if (!Patterns.hasOpenLine(state.getMacro(opponent) | tie) && !Patterns.hasOpenLine(state.getMacro(player) | tie))
+         return 0;
+
+      // A win can't come before the next move, and a loss not before the one after
+      alpha = Math.max(alpha, -(WIN - ply - 2));
+      beta = Math.min(beta, WIN - ply - 1);
+      if (alpha >= beta)
+         return alpha;
+
+      // Win the game on the spot if a won board completes a macroboard line
+      int winningBoards = Patterns.getMaskCompletions(state.getMacro(player), state.getMacro(opponent) | tie) & state.getActive();
+      while (winningBoards != 0) {
+         int b = Integer.numberOfTrailingZeros(winningBoards);
+         winningBoards &= winningBoards - 1;
+
+         if (Patterns.getMaskCompletions(state.getCells(player, b), state.getCells(opponent, b)) != 0)
+            return WIN - ply - 1;
+      }
+
+      long key = state.getHash() ^ State.getTurnKey(player);
+      long entry = cache.probe(key);
+      int hashMove = TranspositionTable.NO_MOVE;
+
+      if (entry != 0) {
+         int score = fromCacheScore(TranspositionTable.getScore(entry), ply);
+         int bound = TranspositionTable.getBound(entry);
+         hashMove = TranspositionTable.getMove(entry);
+
+         if (bound == TranspositionTable.EXACT)
+            return score;
+         else if (bound == TranspositionTable.LOWER)
+            alpha = Math.max(alpha, score);
+         else
+            beta = Math.min(beta, score);
+
+         if (alpha >= beta)
+            return score;
+      }
+
+      int originalAlpha = alpha;
+      int[] moves = moveStack[ply];
+      int moveCount = state.generateMoves(moves);
+      orderMoves(state, moves, moveCount, hashMove, player);
+
+      int bestScore = -INFINITY;
+      int bestMove = TranspositionTable.NO_MOVE;
+
+      for (int i = 0; i < moveCount; i++) {
+         state.makeMove(moves[i], player);
+         int score = -negamax(state, opponent, -beta, -alpha);
+         state.unmakeMove();
+
+         if (aborted)
+            return 0;
+
+         if (score > bestScore) {
+            bestScore = score;
+            bestMove = moves[i];
+         }
+         alpha = Math.max(alpha, score);
+
+         if (alpha >= beta)
+            break;
+      }
+
+      int bound = TranspositionTable.EXACT;
+      if (bestScore <= originalAlpha)
+         bound = TranspositionTable.UPPER;
+      else if (bestScore >= beta)
+         bound = TranspositionTable.LOWER;
+
+      // The open cell count stands in for depth, so bigger subtrees are kept
+      cache.store(key, state.countOpenCells(), bound, toCacheScore(bestScore, ply), bestMove);
+      return bestScore;
+   }
+
+   // Cached move first, then moves that win their board; moves that hand the
+   // opponent a free move or a board they can win go last
+   private void orderMoves(State state, int[] moves, int moveCount, int hashMove, int player) {
+      int[] order = orderStack[state.getPly() - rootPly];
+      int opponent = 3 - player;
+      int decided = state.getDecided();
+
+      for (int i = 0; i < moveCount; i++) {
+         int move = moves[i];
+         int board = move / 9;
+         int cell = move % 9;
+
+         if (move == hashMove) {
+            order[i] = Integer.MAX_VALUE;
+            continue;
+         }
+
+         order[i] = 0;
+         boolean winsBoard = Patterns.isWin(state.getCells(player, board) | (1 << cell));
+
+         if (winsBoard)
+            order[i] += 4;
+
+         if ((decided & (1 << cell)) != 0 || (cell == board && (winsBoard || state.getEmpty(board) == (1 << cell))))
+            order[i] -= 8;
+         else if (Patterns.getMaskCompletions(state.getCells(opponent, cell), state.getCells(player, cell)) != 0)
+            order[i] -= 2;
+      }
+
+      // Insertion sort, highest first
+      for (int i = 1; i < moveCount; i++) {
+         int move = moves[i];
+         int score = order[i];
+         int j = i - 1;
+
+         while (j >= 0 && order[j] < score) {
+            moves[j + 1] = moves[j];
+            order[j + 1] = order[j];
+            j--;
+         }
+         moves[j + 1] = move;
+         order[j + 1] = score;
+      }
+   }
+
+   // Wins and losses are cached counting from the node rather than the root
+   private static int toCacheScore(int score, int ply) {
+      if (score > WIN / 2)
+         return score + ply;
+      else if (score < -WIN / 2)
+         return score - ply;
+      return score;
+   }
+
+   private static int fromCacheScore(int score, int ply) {
+      if (score > WIN / 2)
+         return score - ply;
+      else if (score < -WIN / 2)
+         return score + ply;
+      return score;
+   }
+
+   // Plies to the end of a won or lost game, 0 for a draw
+   public static int getDistance(int score) {
+      return score == 0 ? 0 : WIN - Math.abs(score);
+   }
+
+   public static String describe(int score) {
+      if (score > 0)
+         return "win in " + getDistance(score);
+      else if (score < 0)
+         return "loss in " + getDistance(score);
+      return "draw";
+   }
+
+   public int getScore() {
+      return lastScore;
+   }
+
+   public int getMove() {
+      return lastMove;
+   }
+
+   public long getNodes() {
+      return nodes;
+   }
+
+   // Nanoseconds the last solve took
+   public long getTime() {
+      return lastTime;
+   }
+
+   public String getSearchInfo() {
+      return "solved " + describe(lastScore) + ", " + nodes + " nodes, " + lastTime / 1000000 + " ms";
+   }
+
+   // Solves random positions at each open cell count up to maxOpenCells and
+   // prints the time and nodes it took, to show where the threshold can go
+   public static void main(String[] args) {
+      int maxOpenCells = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+      int positions = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+      long limit = (args.length > 2 ? Long.parseLong(args[2]) : 10) * 1000000000L;
+
+      EndgameSolver solver = new EndgameSolver(64);
+      int[] moves = new int[State.MAX_MOVES];
+
+      System.out.println("open  solved  timeouts  wins  draws  losses  avg ms  max ms  avg nodes");
+
+      for (int openCells = 6; openCells <= maxOpenCells; openCells += 2) {
+         Random random = new Random(openCells);
+         int solved = 0, timeouts = 0, wins = 0, draws = 0, losses = 0;
+         long totalTime = 0, maxTime = 0, totalNodes = 0;
+
+         for (int n = 0; n < positions; n++) {
+            State state;
+            int player;
+
+            // Random games until one is still going with few enough open cells
+            do {
+               state = new State();
+               player = 1;
+
+               while (!state.isGameOver() && state.countOpenCells() > openCells) {
+                  int count = state.generateMoves(moves);
+                  state.makeMove(moves[random.nextInt(count)], player);
+                  player = 3 - player;
+               }
+            }
+            while (state.isGameOver());
+
+            if (!solver.solve(new State(state), player, System.nanoTime() + limit)) {
+               timeouts++;
+               continue;
+            }
+
+            solved++;
+            totalTime += solver.getTime();
+            maxTime = Math.max(maxTime, solver.getTime());
+            totalNodes += solver.getNodes();
+
+            if (solver.getScore() > 0)
+               wins++;
+            else if (solver.getScore() < 0)
+               losses++;
+            else
+               draws++;
+         }
+
+         System.out.println(String.format("%4d  %6d  %8d  %4d  %5d  %6d  %6.1f  %6.1f  %9d",
+            openCells, solved, timeouts, wins, draws, losses,
+            solved > 0 ? totalTime / 1e6 / solved : 0.0, maxTime / 1e6, solved > 0 ? totalNodes / solved : 0));
+      }
+   }
+}
@@ -0,0 +1,42 @@
+/**
+ * Engine interface
+ *
+ * Anything that can choose the bot's move. DisplayPanel talks to the
+ * minimax Bot and the MctsEngine through this interface, so either one can
+ * play.
+ */
+
+public interface Engine {
+   // Returns the move botId should play in the given position
+   Move getBestMove(State state, int botId);
+
+   // Milliseconds the engine may spend on a move, 0 for no limit
+   void setTimeLimit(long timeLimit);
+
+   // One line describing the last search, for logging
+   String getSearchInfo();
+
+   // Score and depth of the last search, for the game log; engines without
+   // them report 0
+   default int getLastScore() {
+      return 0;
+   }
+
+   default int getLastDepth() {
+      return 0;
+   }
+
+   // Called with the position after the engine's move, while the opponent
+   // thinks. Engines that can't use the time ignore it.
+   default void ponder(State state, int botId) {
+   }
+
+   // Stops pondering, for when the game is over
+   default void stopPondering() {
+   }
+
+   // Forgets what earlier searches learned, so a new game plays as on a new
+   // engine. Engines that keep nothing between moves ignore it.
+   default void clear() {
+   }
+}
@@ -0,0 +1,142 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * EvaluationWeights class
+ *
+ * The weights of Bot's evaluation: a won board, a two in a row on the
+ * macroboard, a two in a row on a microboard, and the multiplier the
+ * won-board and microboard terms of each board are scaled by. The defaults
+ * are the original hand-picked values; WeightTuner fits new ones to self-play
+ * games and writes them to a text file of "name value..." lines:
+ *
+ *   wonBoard 1000.0
+ *   macroTwoInARow 500.0
+ *   microTwoInARow 10.0
+ *   boardMultipliers 1.2 0.7 1.2 0.7 1.6 0.8 1.2 0.8 1.2
+ *
+ * Lines starting with # are comments and missing weights keep their
+ * defaults. Multipliers are in board order, the board at macroboard column
+ * x and row y being x * 3 + y.
+ */
+
+public class EvaluationWeights {
+   public static final String DEFAULT_PATH = "evaluation.weights";
+
+   // Number of weights in toArray: the three term weights, then the multipliers
+   public static final int COUNT = 12;
+
+   private double wonBoard = 1000;
+   private double macroTwoInARow = 500;
+   private double microTwoInARow = 10;
+   // Center: 1.6; Corner: 1.2; Side: .8 or .7
+   private final double[] boardMultipliers = {1.2, .7, 1.2, .7, 1.6, .8, 1.2, .8, 1.2};
+
+   public EvaluationWeights() {
+   }
+
+   // Weights in the order of toArray
+   public EvaluationWeights(double[] values) {
+      wonBoard = values[0];
+      macroTwoInARow = values[1];
+      microTwoInARow = values[2];
+      System.arraycopy(values, 3, boardMultipliers, 0, 9);
+   }
+
+   public double[] toArray() {
+      double[] values = new double[COUNT];
+      values[0] = wonBoard;
+      values[1] = macroTwoInARow;
+      values[2] = microTwoInARow;
+      System.arraycopy(boardMultipliers, 0, values, 3, 9);
+      return values;
+   }
+
+   public double getWonBoard() {
+      return wonBoard;
+   }
+
+   public double getMacroTwoInARow() {
+      return macroTwoInARow;
+   }
+
+   public double getMicroTwoInARow() {
+      return microTwoInARow;
+   }
+
+   public double getBoardMultiplier(int board) {
+      return boardMultipliers[board];
+   }
+
+   public static EvaluationWeights read(Path path) throws IOException {
+      EvaluationWeights weights = new EvaluationWeights();
+
+      try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+         String line;
+
+         while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+               continue;
+
+            String[] parts = line.split("\\s+");
+            try {
+               if (parts[0].equals("wonBoard") && parts.length == 2)
+                  weights.wonBoard = Double.parseDouble(parts[1]);
+               else if (parts[0].equals("macroTwoInARow") && parts.length == 2)
+                  weights.macroTwoInARow = Double.parseDouble(parts[1]);
+               else if (parts[0].equals("microTwoInARow") && parts.length == 2)
+                  weights.microTwoInARow = Double.parseDouble(parts[1]);
+               else if (parts[0].equals("boardMultipliers") && parts.length == 10) {
+                  for (int b = 0; b < 9; b++)
+                     weights.boardMultipliers[b] = Double.parseDouble(parts[b + 1]);
+               }
+               else
+                  throw new IOException("Bad weight line in " + path + ": " + line);
+            }
+            catch (NumberFormatException e) {
+               throw new IOException("Bad number in " + path + ": " + line);
+            }
+         }
+      }
+      return weights;
+   }
+
+   // Reads the weights in the working directory, or returns the defaults if
+   // there aren't any
+   public static EvaluationWeights openDefault() {
+      try {
+         if (new File(DEFAULT_PATH).exists())
+            return read(Paths.get(DEFAULT_PATH));
+      }
+      catch (IOException e) {
+         System.err.println("Couldn't read the evaluation weights: " + e.getMessage());
+      }
+      return new EvaluationWeights();
+   }
+
+   public void write(Path path, String comment) throws IOException {
+      try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)) {
+         out.write("# " + comment);
+         out.newLine();
+         out.write(toString());
+      }
+   }
+
+   public String toString() {
+      StringBuilder s = new StringBuilder();
+      s.append("wonBoard ").append(wonBoard).append('\n');
+      s.append("macroTwoInARow ").append(macroTwoInARow).append('\n');
+      s.append("microTwoInARow ").append(microTwoInARow).append('\n');
+      s.append("boardMultipliers");
+      for (int b = 0; b < 9; b++)
+         s.append(' ').append(boardMultipliers[b]);
+      return s.append('\n').toString();
+   }
+}
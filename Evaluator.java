@@ -0,0 +1,141 @@
+/**
+ * Evaluator class
+ *
+ * Incremental version of Bot.evaluationFunction, with the weights the bot
+ * had when the evaluator was created. It caches every score component: the
+ * two-in-a-row term of each microboard per player, the won boards and the
+ * macroboard two-in-a-rows. After a move is made, makeMove recomputes only
+ * the terms of the board played in, and the macroboard terms only if that
+ * board was decided. unmakeMove restores the saved terms without
+ * recomputing anything.
+ *
+ * evaluate adds the cached terms in the same order and with the same int
+ * truncation as Bot.evaluationFunction, so it returns exactly the same
+ * scores.
+ */
+
+public class Evaluator {
+   // Won-board weight * multiplier of each board, as the won-board term
+   private final double[] boardTerms = new double[9];
+   private final double[] multipliers = new double[9];
+   private final double macroWeight, microWeight;
+
+   // microTerms[player][board] is the two-in-a-row term of the board for player
+   private final double[][] microTerms = new double[3][9];
+   private final int[] macroThreats = new int[3];
+
+   // The macroboard masks the cached terms were computed from
+   private int macro1, macro2, decided;
+   // Boards whose macroboard square would complete a three in a row
+   private int critical;
+
+   // Undo stack: the board's previous terms, or -1 when the macroboard changed
+   private final int[] undoBoards = new int[State.MAX_MOVES];
+   private final double[][] undoTerms = new double[3][State.MAX_MOVES];
+   private int top;
+
+   public Evaluator(Bot bot) {
+      EvaluationWeights weights = bot.getWeights();
+      macroWeight = weights.getMacroTwoInARow();
+      microWeight = weights.getMicroTwoInARow();
+
+      for (int b = 0; b < 9; b++) {
+         multipliers[b] = bot.localBoardMultiplier(b / 3, b % 3);
+         boardTerms[b] = weights.getWonBoard() * multipliers[b];
+      }
+   }
+
+   // Recomputes every component from scratch and empties the undo stack
+   public void reset(State state) {
+      top = 0;
+      recompute(state);
+   }
+
+   // Call after state.makeMove, with the board the move was played in
+   public void makeMove(State state, int board) {
+      if (state.getDecided() != decided) {
+         undoBoards[top++] = -1;
+         recompute(state);
+         return;
+      }
+
+      undoBoards[top] = board;
+      undoTerms[1][top] = microTerms[1][board];
+      undoTerms[2][top] = microTerms[2][board];
+      top++;
+      updateBoard(state, board);
+   }
+
+   // Call after state.unmakeMove
+   public void unmakeMove(State state) {
+      top--;
+      int board = undoBoards[top];
+
+      if (board == -1) {
+         recompute(state);
+         return;
+      }
+      microTerms[1][board] = undoTerms[1][top];
+      microTerms[2][board] = undoTerms[2][top];
+   }
+
+   private void recompute(State state) {
+      updateMacro(state);
+      for (int b = 0; b < 9; b++)
+         updateBoard(state, b);
+   }
+
+   private void updateMacro(State state) {
+      macro1 = state.getMacro(1);
+      macro2 = state.getMacro(2);
+      decided = state.getDecided();
+
+      macroThreats[1] = Patterns.getMaskThreats(macro1, decided & ~macro1);
+      macroThreats[2] = Patterns.getMaskThreats(macro2, decided & ~macro2);
+
+      critical = 0;
+      for (int b = 0; b < 9; b++) {
+         // Each board is weighed by the transpose of its macroboard square,
+         // as in Bot.getMicroTwoInARows
+         int macroCell = 1 << ((b % 3) * 3 + b / 3);
+
+         if (Patterns.isWin(macro1 | macroCell) || Patterns.isWin(macro2 | macroCell))
+            critical |= 1 << b;
+      }
+   }
+
+   private void updateBoard(State state, int b) {
+      int one = state.getCells(1, b);
+      int two = state.getCells(2, b);
+      int factor = (critical & (1 << b)) != 0 ? 10 : 1;
+
+      int counter = Patterns.getMaskThreats(one, two) * factor;
+      microTerms[1][b] = counter * microWeight * multipliers[b];
+
+      counter = Patterns.getMaskThreats(two, one) * factor;
+      microTerms[2][b] = counter * microWeight * multipliers[b];
+   }
+
+   public int evaluate(int botId) {
+      int oppositePlayer = 3 - botId;
+      int myBoards = botId == 1 ? macro1 : macro2;
+      int oppositeBoards = botId == 1 ? macro2 : macro1;
+      int score = 0;
+
+      for (int b = 0; b < 9; b++) {
+         if ((oppositeBoards & (1 << b)) != 0)
+            score -= boardTerms[b];
+         else if ((myBoards & (1 << b)) != 0)
+            score += boardTerms[b];
+      }
+
+      score += macroThreats[botId] * macroWeight;
+      score -= macroThreats[oppositePlayer] * macroWeight;
+
+      for (int b = 0; b < 9; b++) {
+         score += microTerms[botId][b];
+         score -= microTerms[oppositePlayer][b];
+      }
+      return score;
+   }
+}
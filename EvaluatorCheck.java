@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * EvaluatorCheck class
+ *
+ * Differential test of Evaluator against Bot.evaluationFunction. Plays
+ * random games from seeded Randoms and, at every ply, makes and unmakes a
+ * few probe moves the way the search does, comparing the incremental score
+ * with the one computed from scratch for both players after every make and
+ * unmake. It runs with the default weights and then with a second set,
+ * random or read from a file, since both must agree under any weights.
+ * Exits with status 1 on the first mismatch.
+ *
+ * Usage: java EvaluatorCheck [games] [weightsFile]; gradle check runs it
+ */
+
+public class EvaluatorCheck {
+   private static final int PROBES = 3;
+   private static final long SEED = 42;
+
+   public static void main(String[] args) throws IOException {
+      int games = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+      EvaluationWeights other;
+      if (args.length > 1)
+         other = EvaluationWeights.read(Paths.get(args[1]));
+      else {
+         Random random = new Random(SEED);
+         double[] values = new EvaluationWeights().toArray();
+         for (int i = 0; i < values.length; i++)
+            values[i] *= 0.5 + random.nextDouble();
+         other = new EvaluationWeights(values);
+      }
+
+      long checks = check(new EvaluationWeights(), games);
+      checks += check(other, games);
+      System.out.println("OK: " + checks + " positions agree");
+   }
+
+   // Returns the number of positions compared
+   private static long check(EvaluationWeights weights, int games) {
+      Bot bot = new Bot(1);
+      bot.setWeights(weights);
+      Evaluator evaluator = new Evaluator(bot);
+      int[] moves = new int[State.MAX_MOVES];
+      long checks = 0;
+
+      for (int game = 0; game < games; game++) {
+         Random random = new Random(SEED + game);
+         State state = new State();
+         evaluator.reset(state);
+         int player = 1;
+
+         while (!state.isGameOver()) {
+            int count = state.generateMoves(moves);
+
+            for (int i = 0; i < PROBES; i++) {
+               int move = moves[random.nextInt(count)];
+               state.makeMove(move, player);
+               evaluator.makeMove(state, move / 9);
+               compare(bot, evaluator, state);
+
+               state.unmakeMove();
+               evaluator.unmakeMove(state);
+               compare(bot, evaluator, state);
+               checks += 2;
+            }
+
+            int move = moves[random.nextInt(count)];
+            state.makeMove(move, player);
+            evaluator.makeMove(state, move / 9);
+            compare(bot, evaluator, state);
+            checks++;
+            player = 3 - player;
+         }
+      }
+      return checks;
+   }
+
+   private static void compare(Bot bot, Evaluator evaluator, State state) {
+      for (int player = 1; player <= 2; player++) {
+         int expected = bot.evaluationFunction(state, player);
+         int actual = evaluator.evaluate(player);
+
+         if (actual != expected) {
+            System.out.println("Mismatch for player " + player + ": Evaluator " + actual + ", evaluationFunction " + expected);
+            System.out.println("Position " + PositionCodec.toText(state) + ", weights:");
+            System.out.print(bot.getWeights());
+            System.exit(1);
+         }
+      }
+   }
+}
@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * GameLogReader class
+ *
+ * Reads the log GameRecorder writes. Segments are memory-mapped and the
+ * records read in place, so going through millions of moves allocates
+ * nothing per record. Records can be visited as they are, or the games
+ * replayed, each move made on a State of its game.
+ *
+ * Running the class replays a log and prints what it holds.
+ *
+ * Usage: java GameLogReader [directory]
+ */
+
+public class GameLogReader {
+   private static final String PREFIX = "games-", SUFFIX = ".log";
+
+   private final Path[] segments;
+
+   public interface Visitor {
+      void startGame(int game, int firstPlayer);
+
+      void move(int game, int player, int move, int micros, int score, int depth);
+
+      void endGame(int game, int winner);
+   }
+
+   // A visitor whose move is called with the position before the move, for
+   // replaying; games are dropped once they end. A move that can't be made
+   // marks its game corrupt, and the game's remaining records are skipped.
+   public static abstract class Replay implements Visitor {
+      private final Map<Integer, State> games = new HashMap<Integer, State>();
+
+      public void startGame(int game, int firstPlayer) {
+         games.put(game, new State());
+      }
+
+      public void move(int game, int player, int move, int micros, int score, int depth) {
+         State state = games.get(game);
+
+         // A game started in a segment that was deleted, or a corrupt one
+         if (state == null)
+            return;
+
+         if (!state.isLegal(move)) {
+            games.remove(game);
+            corrupt(game, state, player, move);
+            return;
+         }
+
+         position(game, state, player, move, micros, score, depth);
+         state.makeMove(move, player);
+      }
+
+      public void endGame(int game, int winner) {
+         State state = games.remove(game);
+         if (state != null)
+            gameOver(game, state, winner);
+      }
+
+      protected abstract void position(int game, State state, int player, int move, int micros, int score, int depth);
+
+      protected void gameOver(int game, State state, int winner) {
+      }
+
+      // Called with the position the illegal move was read in
+      protected void corrupt(int game, State state, int player, int move) {
+      }
+   }
+
+   public GameLogReader(Path directory) throws IOException {
+      segments = listSegments(directory);
+   }
+
+   // The log's segments, oldest first
+   public static Path[] listSegments(Path directory) throws IOException {
+      ArrayList<Path> paths = new ArrayList<Path>();
+
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+         for (Path path : stream)
+            paths.add(path);
+      }
+
+      Path[] sorted = paths.toArray(new Path[0]);
+      Arrays.sort(sorted);
+      return sorted;
+   }
+
+   public static String getSegmentName(int segment) {
+      return String.format("%s%05d%s", PREFIX, segment, SUFFIX);
+   }
+
+   public static int getSegmentNumber(Path path) {
+      String name = path.getFileName().toString();
+      return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+   }
+
+   // Highest game number in the segment, -1 if it has none
+   public static int getLastGame(Path segment) throws IOException {
+      MappedByteBuffer records = map(segment);
+      int last = -1;
+
+      for (int offset = GameRecorder.HEADER_SIZE; offset + GameRecorder.RECORD_SIZE <= records.limit(); offset += GameRecorder.RECORD_SIZE)
+         last = Math.max(last, records.getInt(offset));
+      return last;
+   }
+
+   private static MappedByteBuffer map(Path segment) throws IOException {
+      MappedByteBuffer records;
+
+      try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+         records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+
+      if (records.limit() < GameRecorder.HEADER_SIZE || records.getInt(0) != GameRecorder.MAGIC)
+         throw new IOException("Not a game log: " + segment);
+      if (records.getInt(4) != GameRecorder.VERSION)
+         throw new IOException("Unknown game log version " + records.getInt(4) + ": " + segment);
+      return records;
+   }
+
+   // Visits every record in order and returns how many there were. A record
+   // cut short by a crash at the end of a segment is left out.
+   public long forEach(Visitor visitor) throws IOException {
+      long count = 0;
+
+      for (Path segment : segments) {
+         MappedByteBuffer records = map(segment);
+
+         for (int offset = GameRecorder.HEADER_SIZE; offset + GameRecorder.RECORD_SIZE <= records.limit(); offset += GameRecorder.RECORD_SIZE) {
+            int game = records.getInt(offset);
+            int type = records.get(offset + 4);
+            int player = records.get(offset + 5);
+
+            if (type == GameRecorder.START)
+               visitor.startGame(game, player);
+            else if (type == GameRecorder.MOVE)
+               visitor.move(game, player, records.get(offset + 6), records.getInt(offset + 12), records.getShort(offset + 8), records.get(offset + 7));
+            else if (type == GameRecorder.END)
+               visitor.endGame(game, player);
+            else
+               throw new IOException("Bad record type " + type + " at " + offset + " in " + segment);
+            count++;
+         }
+      }
+      return count;
+   }
+
+   public int getSegmentCount() {
+      return segments.length;
+   }
+
+   public static void main(String[] args) throws IOException {
+      Path directory = Paths.get(args.length > 0 ? args[0] : GameRecorder.DEFAULT_DIRECTORY);
+      GameLogReader reader = new GameLogReader(directory);
+
+      final long[] results = new long[4];
+      final long[] moves = new long[1], corrupt = new long[1];
+      final long[] botMoves = new long[1], botMicros = new long[1], botDepth = new long[1];
+
+      long startTime = System.nanoTime();
+      long records = reader.forEach(new Replay() {
+         protected void position(int game, State state, int player, int move, int micros, int score, int depth) {
+            moves[0]++;
+
+            // Only searched moves have a depth
+            if (depth > 0) {
+               botMoves[0]++;
+               botMicros[0] += micros;
+               botDepth[0] += depth;
+            }
+         }
+
+         protected void gameOver(int game, State state, int winner) {
+            results[winner]++;
+         }
+
+         protected void corrupt(int game, State state, int player, int move) {
+            corrupt[0]++;
+         }
+      });
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+
+      System.out.println(String.format("%d segments, %d records, %d moves replayed in %.2f s (%.0f records/s)",
+         reader.getSegmentCount(), records, moves[0], seconds, records / seconds));
+      System.out.println(String.format("games: %d won by 1, %d won by 2, %d tied, %d abandoned",
+         results[1], results[2], results[State.TIE], results[0]));
+      if (botMoves[0] > 0) {
+         System.out.println(String.format("searched moves: %d, average %.1f ms, average depth %.1f",
+            botMoves[0], botMicros[0] / 1000.0 / botMoves[0], (double) botDepth[0] / botMoves[0]));
+      }
+      if (corrupt[0] > 0)
+         System.out.println(corrupt[0] + " corrupt games skipped");
+   }
+}
@@ -0,0 +1,258 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GameRecorder class
+ *
+ * Appends games to a log of fixed size binary records, for analysis
+ * later with GameLogReader. The log is a directory of segment files,
+ * games-00000.log, games-00001.log, ..., each a header followed by
+ * records; a new segment is started when one reaches SEGMENT_SIZE.
+ *
+ * Every record is 16 bytes, big-endian:
+ *
+ *   int game, byte type, byte player, byte move, byte depth,
+ *   short score, short reserved, int micros
+ *
+ * A START record carries the player moving first, a MOVE record the move
+ * (State's 0 to 80 encoding) with the time, score and depth of the search
+ * behind it, and an END record the winner: 1, 2, State.TIE, or 0 for a
+ * game abandoned before it ended. Records of games played at the same time
+ * are interleaved, the game number tells them apart.
+ *
+ * Recording a move only copies it into a buffer. Full buffers are written
+ * by a thread of the recorder's own, so the caller never waits for the
+ * disk unless the writer falls a few buffers behind.
+ */
+
+public class GameRecorder implements AutoCloseable {
+   public static final String DEFAULT_DIRECTORY = "games";
+
+   public static final int MAGIC = 0x5554474C;
+   public static final int VERSION = 1;
+   // The header is one record long, so records stay aligned
+   public static final int HEADER_SIZE = 16;
+   public static final int RECORD_SIZE = 16;
+   public static final long SEGMENT_SIZE = 64L << 20;
+
+   public static final int START = 1, MOVE = 2, END = 3;
+
+   private static final int BUFFER_SIZE = 64 << 10;
+   private static final int BUFFERS = 4;
+
+   private final Path directory;
+   private final ExecutorService writer;
+   private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+   private ByteBuffer buffer;
+
+   // Only used on the writer thread
+   private FileChannel channel;
+
+   private int segment;
+   // Bytes of the current segment, counting the ones still in buffers
+   private long segmentBytes;
+   private int nextGame;
+   private boolean closed;
+   private volatile IOException failure;
+
+   public GameRecorder(Path directory) throws IOException {
+      this.directory = directory;
+      Files.createDirectories(directory);
+
+      // Carry on after the newest segment, numbering games after the last
+      // one recorded; a segment can be empty if its recorder never got a game
+      Path[] segments = GameLogReader.listSegments(directory);
+      if (segments.length > 0)
+         segment = GameLogReader.getSegmentNumber(segments[segments.length - 1]) + 1;
+      for (int i = segments.length - 1; i >= 0 && nextGame == 0; i--)
+         nextGame = GameLogReader.getLastGame(segments[i]) + 1;
+
+      for (int i = 0; i < BUFFERS; i++)
+         freeBuffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+      buffer = freeBuffers.poll();
+
+      writer = Executors.newSingleThreadExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "game-recorder");
+         thread.setDaemon(true);
+         return thread;
+      });
+      openSegment();
+
+      // Games still in the buffers are written when the program exits
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+         try {
+            close();
+         }
+         catch (IOException e) {
+            System.err.println("Couldn't write the game log: " + e.getMessage());
+         }
+      }, "game-recorder-shutdown"));
+   }
+
+   // Records into the default directory if it exists, otherwise returns null
+   public static GameRecorder openDefault() {
+      try {
+         if (new File(DEFAULT_DIRECTORY).isDirectory())
+            return new GameRecorder(Paths.get(DEFAULT_DIRECTORY));
+      }
+      catch (IOException e) {
+         System.err.println("Couldn't open the game log: " + e.getMessage());
+      }
+      return null;
+   }
+
+   // Starts a game and returns its number, for the records that follow
+   public synchronized int startGame(int firstPlayer) {
+      int game = nextGame++;
+      put(game, START, firstPlayer, -1, 0, 0, 0);
+      return game;
+   }
+
+   // nanos is the time the move took, score and depth those of the search that
+   // found it (0 for a human's move)
+   public synchronized void recordMove(int game, int player, int move, long nanos, int score, int depth) {
+      int micros = (int) Math.min(nanos / 1000, Integer.MAX_VALUE);
+      score = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, score));
+
+      put(game, MOVE, player, move, Math.min(depth, Byte.MAX_VALUE), score, micros);
+   }
+
+   // winner is 1, 2, State.TIE, or 0 for a game abandoned before it ended.
+   // The game is handed to the writer without waiting for the buffer to fill.
+   public synchronized void endGame(int game, int winner) {
+      put(game, END, winner, -1, 0, 0, 0);
+      flush();
+   }
+
+   private void put(int game, int type, int player, int move, int depth, int score, int micros) {
+      if (closed)
+         return;
+
+      if (segmentBytes + RECORD_SIZE > SEGMENT_SIZE) {
+         flush();
+         openSegment();
+      }
+      if (!buffer.hasRemaining())
+         flush();
+
+      buffer.putInt(game);
+      buffer.put((byte) type);
+      buffer.put((byte) player);
+      buffer.put((byte) move);
+      buffer.put((byte) depth);
+      buffer.putShort((short) score);
+      buffer.putShort((short) 0);
+      buffer.putInt(micros);
+      segmentBytes += RECORD_SIZE;
+   }
+
+   // Hands the buffered records to the writer
+   public synchronized void flush() {
+      if (buffer.position() == 0)
+         return;
+
+      final ByteBuffer full = buffer;
+      full.flip();
+      writer.execute(() -> {
+         write(full);
+         full.clear();
+         freeBuffers.add(full);
+      });
+
+      // Waits only when every buffer is queued for writing
+      try {
+         buffer = freeBuffers.take();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      }
+   }
+
+   private void openSegment() {
+      final Path path = directory.resolve(GameLogReader.getSegmentName(segment++));
+      segmentBytes = HEADER_SIZE;
+
+      writer.execute(() -> {
+         try {
+            if (channel != null)
+               channel.close();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+            header.flip();
+            write(header);
+         }
+         catch (IOException e) {
+            fail(e);
+         }
+      });
+   }
+
+   // Runs on the writer thread
+   private void write(ByteBuffer records) {
+      if (failure != null)
+         return;
+
+      try {
+         while (records.hasRemaining())
+            channel.write(records);
+      }
+      catch (IOException e) {
+         fail(e);
+      }
+   }
+
+   // Recording isn't worth stopping a game for, so the first error is
+   // reported once and everything after it dropped
+   private void fail(IOException e) {
+      if (failure == null) {
+         failure = e;
+         System.err.println("Game log stopped: " + e.getMessage());
+      }
+   }
+
+   // Writes what is buffered and closes the log. Throws the error that
+   // stopped recording, if there was one.
+   public void close() throws IOException {
+      synchronized (this) {
+         if (closed)
+            return;
+         flush();
+         closed = true;
+      }
+
+      writer.execute(() -> {
+         try {
+            if (channel != null)
+               channel.close();
+         }
+         catch (IOException e) {
+            fail(e);
+         }
+      });
+      writer.shutdown();
+
+      try {
+         writer.awaitTermination(1, TimeUnit.MINUTES);
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+
+      if (failure != null)
+         throw failure;
+   }
+}
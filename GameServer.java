@@ -0,0 +1,483 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * GameServer class
+ *
+ * HTTP server hosting many human vs bot games at once. The human is player
+ * 1 and the bot player 2, as in DisplayPanel. Every request is handled on
+ * a virtual thread where the runtime has them (a cached thread pool
+ * otherwise) and may block while the bot thinks; the searches themselves
+ * run on a fixed pool of engine workers, each with its own Bot, behind a
+ * bounded queue. When the queue is full a move is refused with 503 rather
+ * than waiting without end.
+ *
+ *   POST   /games?first=bot        new game, the human moves first by default
+ *   POST   /games/{id}?x=4&y=4     the human's move, answered with the bot's
+ *   GET    /games/{id}             the game as it stands
+ *   DELETE /games/{id}             ends the game
+ *   GET    /stats                  sessions, queue depth and latency percentiles
+ *
+ * Games are answered as lines of text, the board in the same order as the
+ * theaigames protocol BotStarter reads:
+ *
+ *   game 12
+ *   winner 0                        (0 while playing, 1, 2, or 3 for a tie)
+ *   position 0000...                (PositionCodec text form)
+ *   bot_move 4 4                    (only when the bot just moved)
+ *   field 0,0,1,...
+ *   macroboard -1,0,...
+ *
+ * Games are recorded to a GameRecorder log when a directory is given.
+ *
+ * Usage: java GameServer [port] [workers] [queue] [timePerMove] [logDirectory]
+ */
+
+public class GameServer {
+   private static final int HUMAN = 1, BOT = 2;
+   // Hash table of each engine worker, in megabytes
+   private static final int WORKER_HASH_SIZE = 8;
+   // Games nobody touched for this long are dropped
+   private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toNanos(30);
+   // Latencies kept for the percentiles
+   private static final int LATENCY_SAMPLES = 10000;
+
+   private final int workers;
+   private final long timePerMove;
+   private final ThreadPoolExecutor engines;
+   private final ThreadLocal<Bot> workerBot;
+
+   private final Map<Long, Session> sessions = new ConcurrentHashMap<Long, Session>();
+   private final AtomicLong nextId = new AtomicLong(1);
+
+   private final AtomicLong moves = new AtomicLong(), rejected = new AtomicLong();
+   private final AtomicInteger busy = new AtomicInteger();
+   private final long[] latencies = new long[LATENCY_SAMPLES];
+   private final long[] queueWaits = new long[LATENCY_SAMPLES];
+   private long samples;
+
+   // Log the games are recorded to, null for none
+   private GameRecorder recorder;
+
+   private HttpServer server;
+   private ExecutorService handlers;
+   private ScheduledExecutorService sweeper;
+
+   // One game. The lock is held while the bot thinks, so moves of the same
+   // game are handled one at a time and the bot has always replied by the
+   // time the human's next move is looked at; a lock rather than
+   // synchronized, which would pin a virtual thread to its carrier while it
+   // waits.
+   private static class Session {
+      final long id;
+      final State state = new State();
+      final ReentrantLock lock = new ReentrantLock();
+      volatile long lastUsed = System.nanoTime();
+      int botMove = -1;
+      // Time, score and depth of the bot's last search, and the game's
+      // number and the start of the human's turn for the game log
+      long searchTime;
+      int searchScore, searchDepth;
+      int logGame;
+      long turnStart = System.nanoTime();
+
+      Session(long id) {
+         this.id = id;
+      }
+   }
+
+   public GameServer(int workers, int queueSize, long timePerMove) {
+      this.workers = workers;
+      this.timePerMove = timePerMove;
+
+      workerBot = ThreadLocal.withInitial(() -> {
+         Bot bot = new Bot(WORKER_HASH_SIZE);
+         bot.setTimeLimit(timePerMove);
+         return bot;
+      });
+
+      AtomicInteger count = new AtomicInteger();
+      engines = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+         new ArrayBlockingQueue<Runnable>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "engine-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         });
+   }
+
+   public void setRecorder(GameRecorder recorder) {
+      this.recorder = recorder;
+   }
+
+   public void start(int port) throws IOException {
+      handlers = newThreadPerTaskExecutor();
+
+      server = HttpServer.create(new InetSocketAddress(port), 1024);
+      server.setExecutor(handlers);
+      server.createContext("/games", this::handleGames);
+      server.createContext("/stats", this::handleStats);
+      server.start();
+
+      sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "session-sweeper");
+         thread.setDaemon(true);
+         return thread;
+      });
+      sweeper.scheduleAtFixedRate(this::dropIdleSessions, 1, 1, TimeUnit.MINUTES);
+   }
+
+   public void stop() {
+      server.stop(0);
+      sweeper.shutdownNow();
+      engines.shutdownNow();
+      handlers.shutdownNow();
+   }
+
+   // An executor starting a virtual thread per task on runtimes that have
+   // them (Java 21 on), found by reflection so the server still builds and
+   // runs on older ones with a cached pool of platform threads instead
+   public static ExecutorService newThreadPerTaskExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }
+      catch (ReflectiveOperationException | RuntimeException e) {
+         return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "request");
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+   }
+
+   private void handleGames(HttpExchange exchange) throws IOException {
+      try {
+         String path = exchange.getRequestURI().getPath();
+         String method = exchange.getRequestMethod();
+         String[] parts = path.split("/");
+
+         if (parts.length == 2 && method.equals("POST")) {
+            createGame(exchange);
+            return;
+         }
+         if (parts.length != 3) {
+            send(exchange, 404, "unknown path\n");
+            return;
+         }
+
+         Session session = sessions.get(parseId(parts[2]));
+         if (session == null) {
+            send(exchange, 404, "unknown game\n");
+            return;
+         }
+         session.lastUsed = System.nanoTime();
+
+         if (method.equals("GET")) {
+            session.lock.lock();
+            try {
+               send(exchange, 200, describe(session));
+            }
+            finally {
+               session.lock.unlock();
+            }
+         }
+         else if (method.equals("POST"))
+            playMove(exchange, session);
+         else if (method.equals("DELETE")) {
+            sessions.remove(session.id);
+            abandon(session);
+            send(exchange, 200, "game " + session.id + " ended\n");
+         }
+         else
+            send(exchange, 405, "method not allowed\n");
+      }
+      catch (RuntimeException e) {
+         send(exchange, 400, "bad request\n");
+      }
+   }
+
+   private void createGame(HttpExchange exchange) throws IOException {
+      Session session = new Session(nextId.getAndIncrement());
+      sessions.put(session.id, session);
+
+      session.lock.lock();
+      try {
+         boolean botFirst = "bot".equals(getParameter(exchange, "first"));
+         if (recorder != null)
+            session.logGame = recorder.startGame(botFirst ? BOT : HUMAN);
+
+         // A game whose first bot move was refused is never handed out
+         if (botFirst && !botMove(exchange, session)) {
+            sessions.remove(session.id);
+            if (recorder != null)
+               recorder.endGame(session.logGame, 0);
+            return;
+         }
+         recordBotMove(session);
+         send(exchange, 200, describe(session));
+      }
+      finally {
+         session.lock.unlock();
+      }
+   }
+
+   private void playMove(HttpExchange exchange, Session session) throws IOException {
+      int x = Integer.parseInt(getParameter(exchange, "x"));
+      int y = Integer.parseInt(getParameter(exchange, "y"));
+
+      session.lock.lock();
+      try {
+         State state = session.state;
+
+         if (state.isGameOver()) {
+            send(exchange, 409, "game over\n");
+            return;
+         }
+
+         int move = State.toIndex(x, y);
+         if (x < 0 || x > 8 || y < 0 || y > 8 || !state.isLegal(move)) {
+            send(exchange, 400, "illegal move\n");
+            return;
+         }
+
+         state.makeMove(move, HUMAN);
+         session.botMove = -1;
+         long humanTime = System.nanoTime() - session.turnStart;
+
+         if (!state.isGameOver() && !botMove(exchange, session)) {
+            // The bot couldn't be asked, so the human's move is taken back
+            state.unmakeMove();
+            return;
+         }
+
+         if (recorder != null)
+            recorder.recordMove(session.logGame, HUMAN, move, humanTime, 0, 0);
+         recordBotMove(session);
+         send(exchange, 200, describe(session));
+      }
+      finally {
+         session.lock.unlock();
+      }
+   }
+
+   // Queues a search for the session and waits for it. Returns false, having
+   // answered the request, if the queue was full.
+   private boolean botMove(HttpExchange exchange, Session session) throws IOException {
+      final State position = new State(session.state);
+      final long queued = System.nanoTime();
+      final long[] wait = new long[1];
+      final long[] search = new long[3];
+      Future<Move> result;
+
+      try {
+         result = engines.submit(() -> {
+            wait[0] = System.nanoTime() - queued;
+            busy.incrementAndGet();
+            try {
+               Bot bot = workerBot.get();
+               long startTime = System.nanoTime();
+               Move move = bot.getBestMove(position, BOT);
+
+               search[0] = System.nanoTime() - startTime;
+               search[1] = bot.getLastScore();
+               search[2] = bot.getLastDepth();
+               return move;
+            }
+            finally {
+               busy.decrementAndGet();
+            }
+         });
+      }
+      catch (RejectedExecutionException e) {
+         rejected.incrementAndGet();
+         send(exchange, 503, "engine queue full\n");
+         return false;
+      }
+
+      Move move;
+      try {
+         move = result.get();
+      }
+      catch (InterruptedException | ExecutionException e) {
+         send(exchange, 500, "search failed\n");
+         return false;
+      }
+
+      session.botMove = move.toIndex();
+      session.state.makeMove(session.botMove, BOT);
+      session.searchTime = search[0];
+      session.searchScore = (int) search[1];
+      session.searchDepth = (int) search[2];
+      recordLatency(System.nanoTime() - queued, wait[0]);
+      return true;
+   }
+
+   private synchronized void recordLatency(long latency, long queueWait) {
+      int slot = (int) (samples++ % LATENCY_SAMPLES);
+      latencies[slot] = latency;
+      queueWaits[slot] = queueWait;
+      moves.incrementAndGet();
+   }
+
+   private void handleStats(HttpExchange exchange) throws IOException {
+      long[] latency, wait;
+
+      synchronized (this) {
+         int count = (int) Math.min(samples, LATENCY_SAMPLES);
+         latency = Arrays.copyOf(latencies, count);
+         wait = Arrays.copyOf(queueWaits, count);
+      }
+
+      String stats = "sessions " + sessions.size() + "\n"
+         + "workers " + workers + "\n"
+         + "busy " + busy.get() + "\n"
+         + "queue_depth " + engines.getQueue().size() + "\n"
+         + "moves " + moves.get() + "\n"
+         + "rejected " + rejected.get() + "\n"
+         + "time_per_move_ms " + timePerMove + "\n"
+         + "latency_ms " + getPercentiles(latency) + "\n"
+         + "queue_wait_ms " + getPercentiles(wait) + "\n";
+      send(exchange, 200, stats);
+   }
+
+   // Percentiles of the samples in nanoseconds, printed in milliseconds
+   private static String getPercentiles(long[] samples) {
+      if (samples.length == 0)
+         return "-";
+
+      Arrays.sort(samples);
+      return String.format("p50 %.1f p90 %.1f p99 %.1f max %.1f",
+         samples[samples.length / 2] / 1e6, samples[samples.length * 9 / 10] / 1e6,
+         samples[samples.length * 99 / 100] / 1e6, samples[samples.length - 1] / 1e6);
+   }
+
+   // Logs the bot's move, if it just made one, and the end of the game if
+   // the last move ended it. Called with the session locked.
+   private void recordBotMove(Session session) {
+      session.turnStart = System.nanoTime();
+      if (recorder == null)
+         return;
+
+      if (session.botMove >= 0)
+         recorder.recordMove(session.logGame, BOT, session.botMove, session.searchTime, session.searchScore, session.searchDepth);
+
+      int winner = session.state.getWinner();
+      if (winner != 0)
+         recorder.endGame(session.logGame, winner);
+   }
+
+   // Logs a game dropped before it ended
+   private void abandon(Session session) {
+      if (recorder == null)
+         return;
+
+      session.lock.lock();
+      try {
+         if (session.state.getWinner() == 0)
+            recorder.endGame(session.logGame, 0);
+      }
+      finally {
+         session.lock.unlock();
+      }
+   }
+
+   private void dropIdleSessions() {
+      long now = System.nanoTime();
+      sessions.values().removeIf(session -> {
+         if (now - session.lastUsed <= IDLE_TIMEOUT)
+            return false;
+         abandon(session);
+         return true;
+      });
+   }
+
+   private static String describe(Session session) {
+      State state = session.state;
+      StringBuilder s = new StringBuilder();
+
+      s.append("game ").append(session.id).append('\n');
+      s.append("winner ").append(state.getWinner()).append('\n');
+      s.append("position ").append(PositionCodec.toText(state)).append('\n');
+      if (session.botMove >= 0)
+         s.append("bot_move ").append(State.getX(session.botMove)).append(' ').append(State.getY(session.botMove)).append('\n');
+
+      int[][] board = state.getBoard();
+      s.append("field ");
+      for (int y = 0; y < 9; y++) {
+         for (int x = 0; x < 9; x++)
+            s.append(board[x][y]).append(y == 8 && x == 8 ? '\n' : ',');
+      }
+
+      int[][] macroboard = state.getMacroboard();
+      s.append("macroboard ");
+      for (int y = 0; y < 3; y++) {
+         for (int x = 0; x < 3; x++)
+            s.append(macroboard[x][y]).append(y == 2 && x == 2 ? '\n' : ',');
+      }
+      return s.toString();
+   }
+
+   private static long parseId(String id) {
+      try {
+         return Long.parseLong(id);
+      }
+      catch (NumberFormatException e) {
+         return -1;
+      }
+   }
+
+   private static String getParameter(HttpExchange exchange, String name) {
+      String query = exchange.getRequestURI().getRawQuery();
+      if (query == null)
+         return null;
+
+      for (String pair : query.split("&")) {
+         int split = pair.indexOf('=');
+         if (split > 0 && pair.substring(0, split).equals(name))
+            return pair.substring(split + 1);
+      }
+      return null;
+   }
+
+   private static void send(HttpExchange exchange, int status, String body) throws IOException {
+      byte[] bytes = body.getBytes(StandardCharsets.US_ASCII);
+
+      exchange.getResponseHeaders().set("Content-Type", "text/plain");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+         out.write(bytes);
+      }
+   }
+
+   public static void main(String[] args) throws IOException {
+      int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+      int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+      int queueSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+      long timePerMove = args.length > 3 ? Long.parseLong(args[3]) : 100;
+
+      GameServer server = new GameServer(workers, queueSize, timePerMove);
+      if (args.length > 4)
+         server.setRecorder(new GameRecorder(Paths.get(args[4])));
+      server.start(port);
+      System.out.println("Listening on port " + port + " with " + workers + " engine workers");
+   }
+}
@@ -0,0 +1,137 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadGenerator class
+ *
+ * Plays many games against a running GameServer at once, each client
+ * choosing random legal moves, and prints the latency the clients saw
+ * followed by the server's own /stats. Clients run on virtual threads
+ * where the runtime has them.
+ *
+ * Usage: java LoadGenerator [host:port] [games] [concurrent]
+ */
+
+public class LoadGenerator {
+   private final String base;
+   private final HttpClient client = HttpClient.newHttpClient();
+   private final AtomicLong requests = new AtomicLong(), retries = new AtomicLong(), failures = new AtomicLong();
+   private final List<Long> latencies = new ArrayList<Long>();
+
+   public LoadGenerator(String address) {
+      base = "http://" + address;
+   }
+
+   public void run(int games, int concurrent) throws Exception {
+      ExecutorService clients = GameServer.newThreadPerTaskExecutor();
+      Semaphore running = new Semaphore(concurrent);
+      List<Future<?>> results = new ArrayList<Future<?>>();
+      long startTime = System.nanoTime();
+
+      for (int g = 0; g < games; g++) {
+         final long seed = g;
+         running.acquire();
+
+         results.add(clients.submit(() -> {
+            try {
+               playGame(new Random(seed));
+            }
+            catch (Exception e) {
+               failures.incrementAndGet();
+            }
+            finally {
+               running.release();
+            }
+         }));
+      }
+      for (Future<?> result : results)
+         result.get();
+
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      long[] sorted;
+      synchronized (latencies) {
+         sorted = new long[latencies.size()];
+         for (int i = 0; i < sorted.length; i++)
+            sorted[i] = latencies.get(i);
+      }
+      Arrays.sort(sorted);
+
+      System.out.println(String.format("%d games, %d requests in %.1f s, %.1f requests/s, %d retries after 503, %d failed games",
+         games, requests.get(), seconds, requests.get() / seconds, retries.get(), failures.get()));
+      if (sorted.length > 0) {
+         System.out.println(String.format("client latency ms: p50 %.1f p90 %.1f p99 %.1f max %.1f",
+            sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 9 / 10] / 1e6,
+            sorted[sorted.length * 99 / 100] / 1e6, sorted[sorted.length - 1] / 1e6));
+      }
+      System.out.print(send("GET", "/stats").body());
+      clients.shutdown();
+   }
+
+   private void playGame(Random random) throws Exception {
+      String game = sendMove(random.nextBoolean() ? "/games?first=bot" : "/games");
+      String id = getValue(game, "game");
+      int[] moves = new int[State.MAX_MOVES];
+
+      while (getValue(game, "winner").equals("0")) {
+         State state = PositionCodec.fromText(getValue(game, "position"));
+         int move = moves[random.nextInt(state.generateMoves(moves))];
+         game = sendMove("/games/" + id + "?x=" + State.getX(move) + "&y=" + State.getY(move));
+      }
+      send("DELETE", "/games/" + id);
+   }
+
+   // Posts a request that makes the bot move, trying again while the
+   // server's engine queue is full
+   private String sendMove(String path) throws Exception {
+      HttpResponse<String> response = send("POST", path);
+
+      while (response.statusCode() == 503) {
+         retries.incrementAndGet();
+         Thread.sleep(50);
+         response = send("POST", path);
+      }
+      if (response.statusCode() != 200)
+         throw new IllegalStateException(response.body());
+      return response.body();
+   }
+
+   private HttpResponse<String> send(String method, String path) throws Exception {
+      HttpRequest request = HttpRequest.newBuilder(URI.create(base + path))
+         .method(method, HttpRequest.BodyPublishers.noBody()).build();
+
+      long startTime = System.nanoTime();
+      HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+      requests.incrementAndGet();
+
+      synchronized (latencies) {
+         latencies.add(System.nanoTime() - startTime);
+      }
+      return response;
+   }
+
+   private static String getValue(String game, String key) {
+      for (String line : game.split("\n")) {
+         if (line.startsWith(key + " "))
+            return line.substring(key.length() + 1);
+      }
+      throw new IllegalStateException("No " + key + " in " + game);
+   }
+
+   public static void main(String[] args) throws Exception {
+      String address = args.length > 0 ? args[0] : "localhost:8080";
+      int games = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+      int concurrent = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+      new LoadGenerator(address).run(games, concurrent);
+   }
+}
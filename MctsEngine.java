@@ -0,0 +1,365 @@
+/**
+ * MctsEngine class
+ *
+ * Monte Carlo tree search: UCT selection, expansion of all children of a
+ * node at once, and uniformly random playouts. The tree lives in a pool of
+ * primitive arrays rather than one object per node, and playouts run on a
+ * single State with make/unmake, so a search allocates nothing.
+ *
+ * Children of a node are stored next to each other in the pool. Between
+ * consecutive moves the subtree of the position actually reached is copied
+ * to the front of a second pool and kept, so earlier work isn't thrown away.
+ */
+
+public class MctsEngine implements Engine {
+   private static final int DEFAULT_CAPACITY = 1 << 20;
+   private static final int NO_RESULT = 0, TIE = State.TIE;
+
+   // Node pool. wins counts for the player who made the move into the node.
+   private int[] firstChild, visits;
+   private byte[] childCount, moves;
+   private float[] wins;
+
+   // Second pool that the kept subtree is copied into
+   private int[] nextFirstChild, nextVisits;
+   private byte[] nextChildCount, nextMoves;
+   private float[] nextWins;
+
+   private final int capacity;
+   private int nodeCount;
+   private int root;
+
+   // Position at the root of the tree, used to find it again next move
+   private State rootState;
+   private int rootPlayer;
+
+   private final int[] path = new int[State.MAX_MOVES + 2];
+   private final int[] moveBuffer = new int[State.MAX_MOVES];
+   private long seed;
+
+   private double exploration = 1.0;
+   private long timeLimit = 1000;
+   private int playoutLimit;
+
+   private long lastPlayouts, lastTime;
+
+   public MctsEngine() {
+      this(DEFAULT_CAPACITY);
+   }
+
+   // capacity is the number of nodes the tree may hold
+   public MctsEngine(int capacity) {
+      this.capacity = capacity;
+      seed = System.nanoTime() | 1;
+
+      firstChild = new int[capacity];
+      visits = new int[capacity];
+      childCount = new byte[capacity];
+      moves = new byte[capacity];
+      wins = new float[capacity];
+
+      nextFirstChild = new int[capacity];
+      nextVisits = new int[capacity];
+      nextChildCount = new byte[capacity];
+      nextMoves = new byte[capacity];
+      nextWins = new float[capacity];
+   }
+
+   public Move getBestMove(State position, int botId) {
+      State state = new State(position);
+
+      // If it's the first move return the middle square
+      if (state.isEmpty()) {
+         lastPlayouts = 0;
+         lastTime = 0;
+         return new Move(4, 4);
+      }
+
+      if (!reuseTree(state, botId))
+         resetTree();
+      rootState = new State(state);
+      rootPlayer = botId;
+
+      long startTime = System.nanoTime();
+      long stopTime = timeLimit > 0 ? startTime + timeLimit * 1000000 : Long.MAX_VALUE;
+      long playouts = 0;
+
+      while (true) {
+         // Check the clock every 64 playouts
+         if ((playouts & 63) == 0 && playouts > 0 && System.nanoTime() >= stopTime)
+            break;
+         if (playoutLimit > 0 && playouts >= playoutLimit)
+            break;
+
+         runIteration(state, botId);
+         playouts++;
+      }
+
+      lastPlayouts = playouts;
+      lastTime = System.nanoTime() - startTime;
+
+      // Play the most visited move
+      int best = -1;
+      for (int c = firstChild[root]; c < firstChild[root] + childCount[root]; c++) {
+         if (best == -1 || visits[c] > visits[best])
+            best = c;
+      }
+      return new Move(State.getX(moves[best]), State.getY(moves[best]));
+   }
+
+   // Selection, expansion, playout and backpropagation for one playout
+   private void runIteration(State state, int botId) {
+      int startPly = state.getPly();
+      int player = botId;
+      int node = root;
+      int length = 0;
+      path[length++] = node;
+
+      while (firstChild[node] != -1) {
+         node = select(node);
+         state.makeMove(moves[node], player);
+         player = 3 - player;
+         path[length++] = node;
+      }
+
+      int result = state.getWinner();
+
+      // Expand a leaf the second time it is reached, while the pool has room
+      if (result == NO_RESULT && (visits[node] > 0 || node == root) && nodeCount + State.MAX_MOVES <= capacity) {
+         expand(node, state);
+         node = firstChild[node];
+         state.makeMove(moves[node], player);
+         player = 3 - player;
+         path[length++] = node;
+         result = state.getWinner();
+      }
+
+      while (result == NO_RESULT) {
+         state.makeMove(randomMove(state), player);
+         player = 3 - player;
+         result = state.getWinner();
+      }
+
+      while (state.getPly() > startPly)
+         state.unmakeMove();
+
+      // The move into path[i] was made by botId for odd i and by the opponent for even i
+      for (int i = 0; i < length; i++) {
+         int mover = (i % 2 == 1) ? botId : 3 - botId;
+
+         visits[path[i]]++;
+         if (result == mover)
+            wins[path[i]] += 1;
+         else if (result == TIE)
+            wins[path[i]] += 0.5f;
+      }
+   }
+
+   private int select(int node) {
+      int first = firstChild[node];
+      int end = first + childCount[node];
+      double logVisits = Math.log(visits[node]);
+      double bestValue = -1;
+      int best = first;
+
+      for (int c = first; c < end; c++) {
+         // Unvisited children are tried first
+         if (visits[c] == 0)
+            return c;
+
+         double value = wins[c] / visits[c] + exploration * Math.sqrt(logVisits / visits[c]);
+         if (value > bestValue) {
+            bestValue = value;
+            best = c;
+         }
+      }
+      return best;
+   }
+
+   private void expand(int node, State state) {
+      int count = state.generateMoves(moveBuffer);
+
+      firstChild[node] = nodeCount;
+      childCount[node] = (byte) count;
+
+      for (int i = 0; i < count; i++)
+         initNode(nodeCount++, moveBuffer[i]);
+   }
+
+   private void initNode(int node, int move) {
+      firstChild[node] = -1;
+      childCount[node] = 0;
+      moves[node] = (byte) move;
+      visits[node] = 0;
+      wins[node] = 0;
+   }
+
+   private int randomMove(State state) {
+      int active = state.getActive();
+      int total = 0;
+
+      for (int b = 0; b < 9; b++) {
+         if ((active & (1 << b)) != 0)
+            total += Integer.bitCount(state.getEmpty(b));
+      }
+
+      int pick = nextInt(total);
+
+      for (int b = 0; b < 9; b++) {
+         if ((active & (1 << b)) == 0)
+            continue;
+
+         int empty = state.getEmpty(b);
+         int count = Integer.bitCount(empty);
+
+         if (pick < count) {
+            // Drop the lowest set bits until the picked one is lowest
+            for (int i = 0; i < pick; i++)
+               empty &= empty - 1;
+            return b * 9 + Integer.numberOfTrailingZeros(empty);
+         }
+         pick -= count;
+      }
+      return -1;
+   }
+
+   // xorshift generator, cheaper than java.util.Random in the playout loop
+   private int nextInt(int bound) {
+      seed ^= seed << 13;
+      seed ^= seed >>> 7;
+      seed ^= seed << 17;
+      return (int) ((seed >>> 33) % bound);
+   }
+
+   private void resetTree() {
+      nodeCount = 0;
+      root = nodeCount++;
+      initNode(root, 0);
+   }
+
+   // Looks for the new position one or two plies below the old root and, if
+   // it's there, keeps its subtree
+   private boolean reuseTree(State state, int botId) {
+      if (rootState == null || rootPlayer != botId)
+         return false;
+
+      long hash = state.getHash();
+
+      // Asked about the same position again
+      if (rootState.getHash() == hash)
+         return true;
+
+      int newRoot = -1;
+
+      for (int c = firstChild[root]; c >= 0 && c < firstChild[root] + childCount[root] && newRoot == -1; c++) {
+         rootState.makeMove(moves[c], botId);
+
+         for (int g = firstChild[c]; g >= 0 && g < firstChild[c] + childCount[c]; g++) {
+            rootState.makeMove(moves[g], 3 - botId);
+            boolean found = rootState.getHash() == hash;
+            rootState.unmakeMove();
+
+            if (found) {
+               newRoot = g;
+               break;
+            }
+         }
+         rootState.unmakeMove();
+      }
+
+      if (newRoot < 0)
+         return false;
+
+      compact(newRoot);
+      return true;
+   }
+
+   // Copies the subtree under newRoot to the front of the other pool,
+   // breadth first so siblings stay next to each other, then swaps pools
+   private void compact(int newRoot) {
+      int count = 0;
+      copyNode(newRoot, count++);
+
+      for (int n = 0; n < count; n++) {
+         int oldFirst = nextFirstChild[n];
+
+         if (oldFirst == -1)
+            continue;
+
+         nextFirstChild[n] = count;
+         for (int c = oldFirst; c < oldFirst + nextChildCount[n]; c++)
+            copyNode(c, count++);
+      }
+
+      int[] intSwap = firstChild;
+      firstChild = nextFirstChild;
+      nextFirstChild = intSwap;
+
+      intSwap = visits;
+      visits = nextVisits;
+      nextVisits = intSwap;
+
+      byte[] byteSwap = childCount;
+      childCount = nextChildCount;
+      nextChildCount = byteSwap;
+
+      byteSwap = moves;
+      moves = nextMoves;
+      nextMoves = byteSwap;
+
+      float[] floatSwap = wins;
+      wins = nextWins;
+      nextWins = floatSwap;
+
+      root = 0;
+      nodeCount = count;
+   }
+
+   // Copies a node into the other pool, still pointing at its old children
+   private void copyNode(int from, int to) {
+      nextFirstChild[to] = firstChild[from];
+      nextVisits[to] = visits[from];
+      nextChildCount[to] = childCount[from];
+      nextMoves[to] = moves[from];
+      nextWins[to] = wins[from];
+   }
+
+   public void setTimeLimit(long timeLimit) {
+      this.timeLimit = timeLimit;
+   }
+
+   // Drops the kept tree, so the next search starts from scratch
+   public void clear() {
+      rootState = null;
+   }
+
+   // Stops a search after this many playouts, 0 for no limit
+   public void setPlayoutLimit(int playoutLimit) {
+      this.playoutLimit = playoutLimit;
+   }
+
+   // The UCT exploration constant
+   public void setExploration(double exploration) {
+      this.exploration = exploration;
+   }
+
+   public void setSeed(long seed) {
+      this.seed = seed | 1;
+   }
+
+   public long getPlayouts() {
+      return lastPlayouts;
+   }
+
+   public long getPlayoutsPerSecond() {
+      return lastTime > 0 ? lastPlayouts * 1000000000L / lastTime : 0;
+   }
+
+   public int getTreeSize() {
+      return nodeCount;
+   }
+
+   public String getSearchInfo() {
+      return lastPlayouts + " playouts, " + getPlayoutsPerSecond() + " playouts/s, " + nodeCount + " nodes";
+   }
+}
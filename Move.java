@@ -37,4 +37,11 @@ public class Move {
 	public int getX() { return mX; }
 	public int getY() { return mY; }
 	
+	// Moves are passed around the search as ints, see State
+	public int toIndex() { return State.toIndex(mX, mY); }
+	
+	public static Move fromIndex(int move) {
+		return new Move(State.getX(move), State.getY(move));
+	}
+	
 }
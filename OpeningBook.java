@@ -0,0 +1,284 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * OpeningBook class
+ *
+ * Best moves of the first few plies, found by deep searches offline. The
+ * board looks the same under its 8 rotations and reflections, so every
+ * position is stored once, under the smallest of its 8 symmetric keys, with
+ * the move in that orientation. Keys tell the stones of the side to move
+ * from the opponent's rather than player 1's from player 2's: whoever
+ * moved first, a position and its twin with the colors swapped share their
+ * entry, and the side to move is given to probe rather than worked out from
+ * the number of stones.
+ *
+ * The file is a header followed by fixed size entries sorted by key:
+ *
+ *   int magic, int count
+ *   count * (long key, byte move, byte depth, short score)
+ *
+ * It is memory-mapped and binary searched in place, so opening it doesn't
+ * read it into the heap and a probe costs a few dozen memory reads.
+ *
+ * Usage: java OpeningBook [file] [plies] [depth]
+ */
+
+public class OpeningBook {
+   public static final String DEFAULT_PATH = "opening.book";
+
+   private static final int MAGIC = 0x55545444;
+   private static final int HEADER_SIZE = 8;
+   private static final int ENTRY_SIZE = 12;
+
+   // MOVES[s][move] is where symmetry s takes move, BOARDS[s][b] where it takes board b
+   private static final int[][] MOVES = new int[8][State.MAX_MOVES];
+   private static final int[][] INVERSE_MOVES = new int[8][State.MAX_MOVES];
+   private static final int[][] BOARDS = new int[8][9];
+
+   // Zobrist keys of the book, independent of State's so the file stays
+   // valid. CELL_KEYS[1] is for the side to move's stones, [2] the opponent's.
+   private static final long[][] CELL_KEYS = new long[3][State.MAX_MOVES];
+   private static final long[] ACTIVE_KEYS = new long[State.FULL + 1];
+
+   static {
+      // Symmetry s swaps x and y if bit 2 is set, then mirrors x on bit 0 and y on bit 1
+      for (int s = 0; s < 8; s++) {
+         for (int move = 0; move < State.MAX_MOVES; move++) {
+            int x = State.getX(move), y = State.getY(move);
+
+            if ((s & 4) != 0) {
+               int swap = x;
+               x = y;
+               y = swap;
+            }
+            if ((s & 1) != 0)
+               x = 8 - x;
+            if ((s & 2) != 0)
+               y = 8 - y;
+
+            MOVES[s][move] = State.toIndex(x, y);
+            INVERSE_MOVES[s][MOVES[s][move]] = move;
+         }
+
+         // The center cell of a board lands on the center cell of its image
+         for (int b = 0; b < 9; b++)
+            BOARDS[s][b] = MOVES[s][b * 9 + 4] / 9;
+      }
+
+      Random random = new Random(0x626F6F6BL);
+
+      for (int move = 0; move < State.MAX_MOVES; move++) {
+         CELL_KEYS[1][move] = random.nextLong();
+         CELL_KEYS[2][move] = random.nextLong();
+      }
+      for (int mask = 0; mask <= State.FULL; mask++)
+         ACTIVE_KEYS[mask] = random.nextLong();
+   }
+
+   private final MappedByteBuffer buffer;
+   private final int count;
+
+   public OpeningBook(Path path) throws IOException {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+         buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+
+      if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+         throw new IOException("Not an opening book: " + path);
+
+      count = buffer.getInt(4);
+      if ((long) HEADER_SIZE + (long) count * ENTRY_SIZE > buffer.limit())
+         throw new IOException("Truncated opening book: " + path);
+   }
+
+   // Opens the book in the working directory, or returns null if there isn't one
+   public static OpeningBook openDefault() {
+      try {
+         if (new File(DEFAULT_PATH).exists())
+            return new OpeningBook(Paths.get(DEFAULT_PATH));
+      }
+      catch (IOException e) {
+         System.err.println("Couldn't open the opening book: " + e.getMessage());
+      }
+      return null;
+   }
+
+   // Returns the entry for player's move in the position, with the move
+   // turned back into the position's own orientation, or 0 if the book
+   // doesn't have it
+   public int probe(State state, int player) {
+      int symmetry = getCanonicalSymmetry(state, player);
+      long key = getKey(state, symmetry, player);
+
+      int low = 0, high = count - 1;
+
+      while (low <= high) {
+         int middle = (low + high) >>> 1;
+         long middleKey = buffer.getLong(HEADER_SIZE + middle * ENTRY_SIZE);
+
+         if (middleKey < key)
+            low = middle + 1;
+         else if (middleKey > key)
+            high = middle - 1;
+         else
+            return toEntry(state, symmetry, HEADER_SIZE + middle * ENTRY_SIZE);
+      }
+      return 0;
+   }
+
+   private int toEntry(State state, int symmetry, int offset) {
+      int move = INVERSE_MOVES[symmetry][buffer.get(offset + 8)];
+
+      // Guards against a key collision handing back an illegal move
+      if (!state.isLegal(move))
+         return 0;
+
+      return pack(move, buffer.get(offset + 9), buffer.getShort(offset + 10));
+   }
+
+   private static int pack(int move, int depth, int score) {
+      return move | depth << 8 | score << 16;
+   }
+
+   public static int getMove(int entry) {
+      return entry & 0xFF;
+   }
+
+   public static int getDepth(int entry) {
+      return (entry >>> 8) & 0xFF;
+   }
+
+   public static int getScore(int entry) {
+      return entry >> 16;
+   }
+
+   public int getCount() {
+      return count;
+   }
+
+   // Key of the position with player to move, as seen through symmetry s
+   private static long getKey(State state, int s, int player) {
+      long key = 0;
+
+      for (int b = 0; b < 9; b++) {
+         for (int owner = 1; owner <= 2; owner++) {
+            int cells = state.getCells(owner, b);
+            long[] keys = CELL_KEYS[owner == player ? 1 : 2];
+
+            while (cells != 0) {
+               key ^= keys[MOVES[s][b * 9 + Integer.numberOfTrailingZeros(cells)]];
+               cells &= cells - 1;
+            }
+         }
+      }
+
+      int active = 0;
+      for (int b = 0; b < 9; b++) {
+         if ((state.getActive() & (1 << b)) != 0)
+            active |= 1 << BOARDS[s][b];
+      }
+      return key ^ ACTIVE_KEYS[active];
+   }
+
+   // The symmetry giving the smallest key
+   private static int getCanonicalSymmetry(State state, int player) {
+      int best = 0;
+      long bestKey = getKey(state, 0, player);
+
+      for (int s = 1; s < 8; s++) {
+         long key = getKey(state, s, player);
+         if (key < bestKey) {
+            bestKey = key;
+            best = s;
+         }
+      }
+      return best;
+   }
+
+   // Searches every position up to plies moves deep to the given depth and
+   // writes the book. The empty board is left out; the engines always open
+   // in the middle.
+   public static void build(Path path, int plies, int depth) throws IOException {
+      TreeMap<Long, Integer> entries = new TreeMap<Long, Integer>();
+      ArrayList<State> frontier = new ArrayList<State>();
+      frontier.add(new State());
+
+      Bot bot = new Bot(64);
+      bot.setTimeLimit(0);
+      bot.setMaxDepth(depth);
+
+      int[] moves = new int[State.MAX_MOVES];
+      long startTime = System.nanoTime();
+
+      for (int ply = 0; ply < plies; ply++) {
+         ArrayList<State> next = new ArrayList<State>();
+         // Keys of the positions reached this ply, to expand each only once
+         TreeMap<Long, Boolean> seen = new TreeMap<Long, Boolean>();
+
+         for (State state : frontier) {
+            int player = state.getPlayerToMove();
+
+            if (ply > 0) {
+               int symmetry = getCanonicalSymmetry(state, player);
+               Move move = bot.getBestMove(state, player);
+               int score = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, bot.getLastScore()));
+
+               entries.put(getKey(state, symmetry, player), pack(MOVES[symmetry][move.toIndex()], bot.getLastDepth(), score));
+            }
+
+            int moveCount = state.generateMoves(moves);
+            for (int i = 0; i < moveCount; i++) {
+               state.makeMove(moves[i], player);
+
+               if (!state.isGameOver()) {
+                  long key = getKey(state, getCanonicalSymmetry(state, 3 - player), 3 - player);
+                  if (seen.put(key, Boolean.TRUE) == null)
+                     next.add(new State(state));
+               }
+               state.unmakeMove();
+            }
+         }
+
+         System.out.println(String.format("Ply %d: %d positions, %d entries, %.1f s",
+            ply, frontier.size(), entries.size(), (System.nanoTime() - startTime) / 1e9));
+         frontier = next;
+      }
+
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile())))) {
+         out.writeInt(MAGIC);
+         out.writeInt(entries.size());
+
+         // TreeMap iterates in signed key order, the order probe searches in
+         for (Map.Entry<Long, Integer> entry : entries.entrySet()) {
+            int data = entry.getValue();
+
+            out.writeLong(entry.getKey());
+            out.writeByte(getMove(data));
+            out.writeByte(getDepth(data));
+            out.writeShort(getScore(data));
+         }
+      }
+   }
+
+   public static void main(String[] args) throws IOException {
+      Path path = Paths.get(args.length > 0 ? args[0] : DEFAULT_PATH);
+      int plies = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+      int depth = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+      build(path, plies, depth);
+      System.out.println("Wrote " + new OpeningBook(path).getCount() + " positions to " + path);
+   }
+}
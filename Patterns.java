@@ -0,0 +1,124 @@
+/**
+ * Patterns class
+ *
+ * Lookup tables for a single 3x3 board, used for both the microboards and
+ * the macroboard. A board is indexed by its base-3 pattern, where cell i adds
+ * 3^i when player 1 holds it and 2 * 3^i when player 2 does. Each entry tells
+ * in one read whether the board is won or tied and which empty cells would
+ * complete a three in a row for either player.
+ */
+
+public class Patterns {
+   public static final int SIZE = 19683;
+   public static final int OPEN = 0, TIE = 3;
+
+   // Masks of the eight three in a rows of a 3x3 board
+   private static final int[] LINES = {
+      0x007, 0x038, 0x1C0, 0x049, 0x092, 0x124, 0x111, 0x054
+   };
+
+   private static final boolean[] WIN = new boolean[512];
+   // Whether some three in a row avoids every cell of the mask
+   private static final boolean[] OPEN_LINE = new boolean[512];
+   private static final int[] BASE3 = new int[512];
+
+   // Bits 0-8: completion cells for player 1, bits 9-17: for player 2,
+   // bits 18-19: status (OPEN, 1 or 2 for the winner, or TIE)
+   private static final int[] ENTRIES = new int[SIZE];
+
+   static {
+      for (int mask = 0; mask < 512; mask++) {
+         for (int i = 0; i < LINES.length; i++) {
+            if ((mask & LINES[i]) == LINES[i])
+               WIN[mask] = true;
+            if ((mask & LINES[i]) == 0)
+               OPEN_LINE[mask] = true;
+         }
+
+         int power = 1;
+         for (int cell = 0; cell < 9; cell++) {
+            if ((mask & (1 << cell)) != 0)
+               BASE3[mask] += power;
+            power *= 3;
+         }
+      }
+
+      for (int one = 0; one < 512; one++) {
+         for (int two = 0; two < 512; two++) {
+            if ((one & two) != 0)
+               continue;
+
+            int empty = 0x1FF & ~(one | two);
+            int entry = 0;
+
+            for (int cell = 0; cell < 9; cell++) {
+               int bit = 1 << cell;
+
+               if ((empty & bit) == 0)
+                  continue;
+               if (WIN[one | bit])
+                  entry |= bit;
+               if (WIN[two | bit])
+                  entry |= bit << 9;
+            }
+
+            int status = OPEN;
+            if (WIN[one])
+               status = 1;
+            else if (WIN[two])
+               status = 2;
+            else if (empty == 0)
+               status = TIE;
+
+            ENTRIES[index(one, two)] = entry | status << 18;
+         }
+      }
+   }
+
+   // Base-3 index of the board where player 1 holds one and player 2 holds two
+   public static int index(int one, int two) {
+      return BASE3[one] + 2 * BASE3[two];
+   }
+
+   public static boolean isWin(int mask) {
+      return WIN[mask];
+   }
+
+   // Whether a three in a row can still be made without the blocked cells
+   public static boolean hasOpenLine(int blocked) {
+      return OPEN_LINE[blocked];
+   }
+
+   // Takes in an int[] of 9 values and checks for win
+   public static boolean isWin(int[] boardValues, int player) {
+      int mask = 0;
+
+      for (int i = 0; i < 9; i++) {
+         if (boardValues[i] == player)
+            mask |= 1 << i;
+      }
+      return WIN[mask];
+   }
+
+   public static int getStatus(int index) {
+      return ENTRIES[index] >>> 18;
+   }
+
+   // Empty cells that would give player a three in a row
+   public static int getCompletions(int index, int player) {
+      return (ENTRIES[index] >>> (player == 1 ? 0 : 9)) & 0x1FF;
+   }
+
+   // Completion cells for the player holding mine against the cells in theirs
+   public static int getMaskCompletions(int mine, int theirs) {
+      return ENTRIES[index(mine, theirs)] & 0x1FF;
+   }
+
+   public static int getThreats(int index, int player) {
+      return Integer.bitCount(getCompletions(index, player));
+   }
+
+   public static int getMaskThreats(int mine, int theirs) {
+      return Integer.bitCount(getMaskCompletions(mine, theirs));
+   }
+}
@@ -0,0 +1,126 @@
+import java.nio.ByteBuffer;
+
+/**
+ * PositionCodec class
+ *
+ * Packs a position into three longs, 24 bytes, for keys, files and
+ * messages. Each long holds three boards (0-2, 3-5 and 6-8), 18 bits a
+ * board: player 1's 9-bit cell mask, then player 2's. The mask of active
+ * boards takes bits 54 to 62 of the last long. Which boards are won or
+ * tied follows from the cells, so it isn't stored, and the same position
+ * always packs to the same code however it was reached. Decoding rejects
+ * codes no game can reach, which could leave a State without legal moves:
+ * active boards that are won, tied or full, no active board while the game
+ * goes on, or a board with three in a row for both players.
+ *
+ * The text form is the three longs as 16 hex digits each, 48 characters in
+ * all, and the binary form the three longs big-endian.
+ */
+
+public class PositionCodec {
+   public static final int LONGS = 3;
+   public static final int BYTES = LONGS * 8;
+   public static final int TEXT_LENGTH = LONGS * 16;
+
+   private static final int BOARD_BITS = 18;
+   private static final int ACTIVE_SHIFT = 3 * BOARD_BITS;
+
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   // Writes the code of state into code[0..2]
+   public static void encode(State state, long[] code) {
+      for (int i = 0; i < LONGS; i++) {
+         long word = 0;
+
+         for (int j = 0; j < 3; j++) {
+            int b = i * 3 + j;
+            word |= (long) (state.getCells(1, b) | state.getCells(2, b) << 9) << (j * BOARD_BITS);
+         }
+         code[i] = word;
+      }
+      code[LONGS - 1] |= (long) state.getActive() << ACTIVE_SHIFT;
+   }
+
+   public static State decode(long[] code) {
+      int[] cells1 = new int[9];
+      int[] cells2 = new int[9];
+
+      for (int i = 0; i < LONGS; i++) {
+         // Only the last long has bits above the boards, the active mask
+         long high = code[i] >>> ACTIVE_SHIFT;
+         if (high > (i == LONGS - 1 ? State.FULL : 0))
+            throw new IllegalArgumentException("Not a position code");
+
+         for (int j = 0; j < 3; j++) {
+            int bits = (int) (code[i] >>> (j * BOARD_BITS));
+            cells1[i * 3 + j] = bits & State.FULL;
+            cells2[i * 3 + j] = (bits >>> 9) & State.FULL;
+
+            if ((cells1[i * 3 + j] & cells2[i * 3 + j]) != 0)
+               throw new IllegalArgumentException("Not a position code");
+            // A board is decided by the first three in a row, so only one player can have one
+            if (Patterns.isWin(cells1[i * 3 + j]) && Patterns.isWin(cells2[i * 3 + j]))
+               throw new IllegalArgumentException("Not a position code");
+         }
+      }
+
+      int active = (int) (code[LONGS - 1] >>> ACTIVE_SHIFT);
+      State state = new State(cells1, cells2, active);
+
+      // Moves only send the next player to open boards, and there is always
+      // one while the game goes on
+      if ((active & state.getDecided()) != 0 || (active == 0 && !state.isGameOver()))
+         throw new IllegalArgumentException("Not a position code");
+      return state;
+   }
+
+   public static String toText(long[] code) {
+      char[] text = new char[TEXT_LENGTH];
+
+      for (int i = 0; i < LONGS; i++) {
+         for (int digit = 0; digit < 16; digit++)
+            text[i * 16 + digit] = HEX[(int) (code[i] >>> (60 - digit * 4)) & 15];
+      }
+      return new String(text);
+   }
+
+   public static String toText(State state) {
+      long[] code = new long[LONGS];
+      encode(state, code);
+      return toText(code);
+   }
+
+   // Reads the text form into code[0..2]
+   public static void fromText(CharSequence text, long[] code) {
+      if (text.length() != TEXT_LENGTH)
+         throw new IllegalArgumentException("Not a position code: " + text);
+
+      for (int i = 0; i < LONGS; i++) {
+         long word = 0;
+
+         for (int digit = 0; digit < 16; digit++) {
+            int value = Character.digit(text.charAt(i * 16 + digit), 16);
+            if (value < 0)
+               throw new IllegalArgumentException("Not a position code: " + text);
+            word = word << 4 | value;
+         }
+         code[i] = word;
+      }
+   }
+
+   public static State fromText(CharSequence text) {
+      long[] code = new long[LONGS];
+      fromText(text, code);
+      return decode(code);
+   }
+
+   public static void write(ByteBuffer buffer, long[] code) {
+      for (int i = 0; i < LONGS; i++)
+         buffer.putLong(code[i]);
+   }
+
+   public static void read(ByteBuffer buffer, long[] code) {
+      for (int i = 0; i < LONGS; i++)
+         code[i] = buffer.getLong();
+   }
+}
@@ -0,0 +1,46 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * SearchEvent class
+ *
+ * Flight recorder event committed after every search of the minimax
+ * engine. Its duration is the time the move took. Record it with
+ * -XX:StartFlightRecording and look for ultimate.Search.
+ */
+
+@Name("ultimate.Search")
+@Label("Search")
+@Category("Ultimate Tic Tac Toe")
+@Description("One move searched by the minimax engine")
+public class SearchEvent extends Event {
+   @Label("Depth")
+   int depth;
+
+   @Label("Score")
+   int score;
+
+   @Label("Nodes")
+   long nodes;
+
+   @Label("Evaluations")
+   long evaluations;
+
+   @Label("Cutoffs")
+   long cutoffs;
+
+   @Label("First Move Cutoff Rate")
+   double firstMoveCutoffRate;
+
+   @Label("Branching Factor")
+   double branchingFactor;
+
+   @Label("Table Hit Rate")
+   double tableHitRate;
+
+   @Label("Threads")
+   int threads;
+}
@@ -0,0 +1,105 @@
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * SearchStats class
+ *
+ * Search counters of one engine, published as an MBean. The search keeps
+ * its counters in plain fields of each thread's Bot and adds them up once
+ * per move; record is the only call the search makes, so reading the
+ * statistics never slows it down.
+ */
+
+public class SearchStats implements SearchStatsMBean {
+   private long searches, totalNodes, totalTime;
+
+   private long lastNodes, lastEvaluations, lastCutoffs, lastFirstMoveCutoffs;
+   private long lastTableHits, lastTableMisses, lastTime;
+   private double lastBranchingFactor;
+   private int lastDepth;
+
+   public synchronized void record(long nodes, long evaluations, long cutoffs, long firstMoveCutoffs,
+         long tableHits, long tableMisses, double branchingFactor, int depth, long time) {
+      searches++;
+      totalNodes += nodes;
+      totalTime += time;
+
+      lastNodes = nodes;
+      lastEvaluations = evaluations;
+      lastCutoffs = cutoffs;
+      lastFirstMoveCutoffs = firstMoveCutoffs;
+      lastTableHits = tableHits;
+      lastTableMisses = tableMisses;
+      lastBranchingFactor = branchingFactor;
+      lastDepth = depth;
+      lastTime = time;
+   }
+
+   // Registers with the platform MBean server as ultimate:type=SearchStats,name=name
+   public void register(String name) {
+      try {
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("ultimate:type=SearchStats,name=" + name));
+      }
+      catch (JMException e) {
+         System.err.println("Couldn't register the search statistics: " + e.getMessage());
+      }
+   }
+
+   public synchronized long getSearches() {
+      return searches;
+   }
+
+   public synchronized long getTotalNodes() {
+      return totalNodes;
+   }
+
+   public synchronized long getAverageNodesPerSecond() {
+      return totalTime > 0 ? totalNodes * 1000000000L / totalTime : 0;
+   }
+
+   public synchronized long getLastNodes() {
+      return lastNodes;
+   }
+
+   public synchronized long getLastNodesPerSecond() {
+      return lastTime > 0 ? lastNodes * 1000000000L / lastTime : 0;
+   }
+
+   public synchronized long getLastEvaluations() {
+      return lastEvaluations;
+   }
+
+   public synchronized long getLastCutoffs() {
+      return lastCutoffs;
+   }
+
+   public synchronized double getLastFirstMoveCutoffRate() {
+      return lastCutoffs > 0 ? (double) lastFirstMoveCutoffs / lastCutoffs : 0;
+   }
+
+   public synchronized double getLastBranchingFactor() {
+      return lastBranchingFactor;
+   }
+
+   public synchronized int getLastDepth() {
+      return lastDepth;
+   }
+
+   public synchronized long getLastTimeMillis() {
+      return lastTime / 1000000;
+   }
+
+   public synchronized double getLastTableHitRate() {
+      long probes = lastTableHits + lastTableMisses;
+      return probes > 0 ? (double) lastTableHits / probes : 0;
+   }
+
+   public synchronized void reset() {
+      searches = totalNodes = totalTime = 0;
+      lastNodes = lastEvaluations = lastCutoffs = lastFirstMoveCutoffs = 0;
+      lastTableHits = lastTableMisses = lastTime = 0;
+      lastBranchingFactor = 0;
+      lastDepth = 0;
+   }
+}
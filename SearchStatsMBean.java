@@ -0,0 +1,35 @@
+/**
+ * SearchStatsMBean interface
+ *
+ * Management interface of SearchStats. Attributes starting with Last
+ * describe the most recent search, the others every search so far.
+ */
+
+public interface SearchStatsMBean {
+   long getSearches();
+
+   long getTotalNodes();
+
+   long getAverageNodesPerSecond();
+
+   long getLastNodes();
+
+   long getLastNodesPerSecond();
+
+   long getLastEvaluations();
+
+   long getLastCutoffs();
+
+   // Share of the cutoffs caused by the first move searched
+   double getLastFirstMoveCutoffRate();
+
+   double getLastBranchingFactor();
+
+   int getLastDepth();
+
+   long getLastTimeMillis();
+
+   double getLastTableHitRate();
+
+   void reset();
+}
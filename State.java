@@ -1,17 +1,330 @@
+/**
+ * State class
+ *
+ * Compact representation of a position. Every microboard is stored as a
+ * 9-bit occupancy mask per player and the macroboard as 9-bit masks of the
+ * microboards won by each player or tied, plus a mask of the microboards
+ * the next move may be played in. Moves are made and unmade in place, so
+ * the search never copies the position.
+ *
+ * Moves are encoded as an int from 0 to 80: board * 9 + cell, where
+ * board = (x / 3) * 3 + y / 3 and cell = (x % 3) * 3 + y % 3.
+ *
+ * A Zobrist hash over the cells, the macroboard status and the active
+ * boards is updated incrementally with every move.
+ */
+
+import java.util.Random;
+
 public class State {
-   private int[][] board;
-   private int[][] macroboard;
-   
+   public static final int FULL = 0x1FF;
+   public static final int TIE = 3;
+   public static final int MAX_MOVES = 81;
+
+   // Zobrist keys, generated from a fixed seed so hashes are stable between runs
+   private static final long[][] CELL_KEYS = new long[3][MAX_MOVES];
+   private static final long[][] MACRO_KEYS = new long[4][9];
+   private static final long[] ACTIVE_KEYS = new long[FULL + 1];
+   private static final long[] TURN_KEYS = new long[3];
+
+   static {
+      Random random = new Random(0x5DEECE66DL);
+
+      for (int move = 0; move < MAX_MOVES; move++) {
+         CELL_KEYS[1][move] = random.nextLong();
+         CELL_KEYS[2][move] = random.nextLong();
+      }
+      for (int status = 1; status < MACRO_KEYS.length; status++) {
+         for (int b = 0; b < 9; b++)
+            MACRO_KEYS[status][b] = random.nextLong();
+      }
+      for (int mask = 0; mask <= FULL; mask++)
+         ACTIVE_KEYS[mask] = random.nextLong();
+      TURN_KEYS[1] = random.nextLong();
+      TURN_KEYS[2] = random.nextLong();
+   }
+
+   // cells[player][board] is the mask of cells taken by player (1 or 2)
+   private final int[][] cells = new int[3][9];
+   // macro[player] is the mask of boards won by player, macro[TIE] the tied boards
+   private final int[] macro = new int[4];
+   private int active;
+   private long hash;
+
+   // Undo information, one entry per move made
+   private final int[] moveHistory = new int[MAX_MOVES];
+   private final int[] activeHistory = new int[MAX_MOVES];
+   private final long[] hashHistory = new long[MAX_MOVES];
+   private int ply;
+
+   public State() {
+      active = FULL;
+      hash = computeHash();
+   }
+
    public State(int[][] board, int[][] macroboard) {
-      this.board = board;
-      this.macroboard = macroboard;
+      for (int x = 0; x < 9; x++) {
+         for (int y = 0; y < 9; y++) {
+            if (board[x][y] > 0)
+               cells[board[x][y]][(x / 3) * 3 + y / 3] |= 1 << ((x % 3) * 3 + y % 3);
+         }
+      }
+
+      for (int i = 0; i < 3; i++) {
+         for (int j = 0; j < 3; j++) {
+            int value = macroboard[i][j];
+
+            if (value > 0)
+               macro[value] |= 1 << (i * 3 + j);
+            else if (value == -1)
+               active |= 1 << (i * 3 + j);
+         }
+      }
+      hash = computeHash();
+   }
+
+   // Builds the position from each player's cell masks per board and the
+   // active boards. Which boards are won or tied follows from the cells, as
+   // it does when the moves are made.
+   public State(int[] cells1, int[] cells2, int active) {
+      for (int b = 0; b < 9; b++) {
+         cells[1][b] = cells1[b];
+         cells[2][b] = cells2[b];
+
+         if (Patterns.isWin(cells1[b]))
+            macro[1] |= 1 << b;
+         else if (Patterns.isWin(cells2[b]))
+            macro[2] |= 1 << b;
+         else if ((cells1[b] | cells2[b]) == FULL)
+            macro[TIE] |= 1 << b;
+      }
+      this.active = active;
+      hash = computeHash();
+   }
+
+   // Copies the position only, the undo history starts empty
+   public State(State other) {
+      for (int b = 0; b < 9; b++) {
+         cells[1][b] = other.cells[1][b];
+         cells[2][b] = other.cells[2][b];
+      }
+      for (int i = 1; i < macro.length; i++)
+         macro[i] = other.macro[i];
+      active = other.active;
+      hash = other.hash;
+   }
+
+   public static int toIndex(int x, int y) {
+      return ((x / 3) * 3 + y / 3) * 9 + (x % 3) * 3 + y % 3;
+   }
+
+   public static int getX(int move) {
+      return (move / 27) * 3 + (move % 9) / 3;
+   }
+
+   public static int getY(int move) {
+      return ((move / 9) % 3) * 3 + move % 3;
+   }
+
+   public void makeMove(int move, int player) {
+      int b = move / 9;
+      int cell = move % 9;
+
+      moveHistory[ply] = move;
+      activeHistory[ply] = active;
+      hashHistory[ply] = hash;
+      ply++;
+
+      cells[player][b] |= 1 << cell;
+      hash ^= CELL_KEYS[player][move] ^ ACTIVE_KEYS[active];
+
+      if (Patterns.isWin(cells[player][b])) {
+         macro[player] |= 1 << b;
+         hash ^= MACRO_KEYS[player][b];
+      }
+      else if ((cells[1][b] | cells[2][b]) == FULL) {
+         macro[TIE] |= 1 << b;
+         hash ^= MACRO_KEYS[TIE][b];
+      }
+
+      // The cell played decides which board the opponent moves in next
+      if ((getDecided() & (1 << cell)) != 0)
+         active = FULL & ~getDecided();
+      else
+         active = 1 << cell;
+      hash ^= ACTIVE_KEYS[active];
+   }
+
+   public void unmakeMove() {
+      ply--;
+      int move = moveHistory[ply];
+      int b = move / 9;
+      int bit = 1 << (move % 9);
+
+      cells[1][b] &= ~bit;
+      cells[2][b] &= ~bit;
+
+      // The board was still open before the move, so it can't have been decided
+      macro[1] &= ~(1 << b);
+      macro[2] &= ~(1 << b);
+      macro[TIE] &= ~(1 << b);
+
+      active = activeHistory[ply];
+      hash = hashHistory[ply];
+   }
+
+   private long computeHash() {
+      long h = ACTIVE_KEYS[active];
+
+      for (int move = 0; move < MAX_MOVES; move++) {
+         for (int player = 1; player <= 2; player++) {
+            if ((cells[player][move / 9] & (1 << (move % 9))) != 0)
+               h ^= CELL_KEYS[player][move];
+         }
+      }
+      for (int status = 1; status < MACRO_KEYS.length; status++) {
+         for (int b = 0; b < 9; b++) {
+            if ((macro[status] & (1 << b)) != 0)
+               h ^= MACRO_KEYS[status][b];
+         }
+      }
+      return h;
+   }
+
+   // Key to mix into the hash when the side to move matters
+   public static long getTurnKey(int player) {
+      return TURN_KEYS[player];
+   }
+
+   public long getHash() {
+      return hash;
+   }
+
+   // Writes the legal moves into moves and returns how many there are. Only
+   // the active boards are visited, and nothing is allocated.
+   public int generateMoves(int[] moves) {
+      int count = 0;
+      int remaining = active;
+
+      while (remaining != 0) {
+         int b = Integer.numberOfTrailingZeros(remaining);
+         int empty = getEmpty(b);
+         remaining &= remaining - 1;
+
+         while (empty != 0) {
+            moves[count++] = b * 9 + Integer.numberOfTrailingZeros(empty);
+            empty &= empty - 1;
+         }
+      }
+      return count;
+   }
+
+   public int getCells(int player, int board) {
+      return cells[player][board];
+   }
+
+   public int getEmpty(int board) {
+      return FULL & ~(cells[1][board] | cells[2][board]);
+   }
+
+   public int getMacro(int player) {
+      return macro[player];
+   }
+
+   public int getDecided() {
+      return macro[1] | macro[2] | macro[TIE];
+   }
+
+   public int getActive() {
+      return active;
+   }
+
+   public int getPly() {
+      return ply;
+   }
+
+   public boolean isEmpty() {
+      for (int b = 0; b < 9; b++) {
+         if ((cells[1][b] | cells[2][b]) != 0)
+            return false;
+      }
+      return true;
+   }
+
+   // The player to move if player 1 moved first, from the number of stones.
+   // DisplayPanel lets either player start, so engines are told whose move
+   // it is rather than calling this.
+   public int getPlayerToMove() {
+      int stones = 0;
+
+      for (int b = 0; b < 9; b++)
+         stones += Integer.bitCount(cells[1][b] | cells[2][b]);
+      return stones % 2 == 0 ? 1 : 2;
+   }
+
+   // 0 while the game goes on, otherwise the winner or TIE
+   public int getWinner() {
+      if (Patterns.isWin(macro[1]))
+         return 1;
+      else if (Patterns.isWin(macro[2]))
+         return 2;
+      else if (getDecided() == FULL)
+         return TIE;
+      return 0;
+   }
+
+   public boolean isGameOver() {
+      return Patterns.isWin(macro[1]) || Patterns.isWin(macro[2]) || getDecided() == FULL;
+   }
+
+   // Whether move is in range, on an active board and on an empty cell
+   public boolean isLegal(int move) {
+      return move >= 0 && move < MAX_MOVES && (active & (1 << (move / 9))) != 0 && (getEmpty(move / 9) & (1 << (move % 9))) != 0;
+   }
+
+   // Number of empty cells within the boards that haven't been decided
+   public int countOpenCells() {
+      int count = 0;
+      int decided = getDecided();
+
+      for (int b = 0; b < 9; b++) {
+         if ((decided & (1 << b)) == 0)
+            count += Integer.bitCount(getEmpty(b));
+      }
+      return count;
    }
-   
+
+   // Builds the 9x9 board array indexed [x][y]
    public int[][] getBoard() {
+      int[][] board = new int[9][9];
+
+      for (int move = 0; move < MAX_MOVES; move++) {
+         int bit = 1 << (move % 9);
+
+         if ((cells[1][move / 9] & bit) != 0)
+            board[getX(move)][getY(move)] = 1;
+         else if ((cells[2][move / 9] & bit) != 0)
+            board[getX(move)][getY(move)] = 2;
+      }
       return board;
    }
-   
+
+   // Builds the 3x3 macroboard array, using -1 for the active boards
    public int[][] getMacroboard() {
+      int[][] macroboard = new int[3][3];
+
+      for (int b = 0; b < 9; b++) {
+         int bit = 1 << b;
+
+         if ((macro[1] & bit) != 0)
+            macroboard[b / 3][b % 3] = 1;
+         else if ((macro[2] & bit) != 0)
+            macroboard[b / 3][b % 3] = 2;
+         else if ((macro[TIE] & bit) != 0)
+            macroboard[b / 3][b % 3] = TIE;
+         else if ((active & bit) != 0)
+            macroboard[b / 3][b % 3] = -1;
+      }
       return macroboard;
    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,322 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tournament class
+ *
+ * Headless self-play between two engine configurations, spread over all
+ * cores. Every game starts from a few random moves, and each opening is
+ * played twice with the colors swapped, so an odd number of games is
+ * rounded up to the next pair. Prints wins/draws/losses of the first
+ * configuration, the Elo difference with a 95% error bar, and games/s. A
+ * sequential probability ratio test stops the match once it can tell
+ * whether the difference is at least elo1 or at most elo0.
+ *
+ * An engine configuration is a type followed by options, for example
+ * "minimax:time=100", "minimax:depth=6,solver=24", "minimax:weights=tuned.weights"
+ * or "mcts:time=100,c=1.4". A minimax engine given neither a time nor a
+ * depth gets 1000 ms a move, as an mcts engine does.
+ *
+ * Given a log directory, the games are recorded with GameRecorder, which
+ * makes a self-play corpus for WeightTuner; an elo0 equal to elo1 keeps the
+ * test from stopping the match early.
+ *
+ * Usage: java Tournament engineA engineB [games] [threads] [elo0 elo1] [logDirectory]
+ */
+
+public class Tournament {
+   // Random moves played before the engines take over
+   private static final int OPENING_PLIES = 4;
+   // Error rates of the sequential test
+   private static final double ALPHA = 0.05, BETA = 0.05;
+   // Milliseconds a move for a minimax engine without a time or depth option
+   private static final long DEFAULT_TIME = 1000;
+
+   private final String configA, configB;
+   private final int maxGames;
+   private final double elo0, elo1;
+   private final long seed;
+
+   // Engines A and B of each worker thread, reused for all of its games
+   private final ThreadLocal<Engine[]> engines = new ThreadLocal<Engine[]>() {
+      protected Engine[] initialValue() {
+         return new Engine[] {createEngine(configA), createEngine(configB)};
+      }
+   };
+
+   // Log the games are recorded to, null for none
+   private GameRecorder recorder;
+
+   private int wins, draws, losses;
+   private volatile boolean finished;
+   private String result = "";
+   private long startTime;
+
+   public Tournament(String configA, String configB, int maxGames, double elo0, double elo1, long seed) {
+      this.configA = configA;
+      this.configB = configB;
+      this.maxGames = maxGames;
+      this.elo0 = elo0;
+      this.elo1 = elo1;
+      this.seed = seed;
+   }
+
+   public void setRecorder(GameRecorder recorder) {
+      this.recorder = recorder;
+   }
+
+   // Plays the match. An exception in a game ends the match and is thrown
+   // from here.
+   public void run(int threads) throws InterruptedException {
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      ArrayList<Future<?>> pairs = new ArrayList<Future<?>>();
+      startTime = System.nanoTime();
+
+      for (int pair = 0; pair < (maxGames + 1) / 2; pair++) {
+         final long openingSeed = seed + pair;
+
+         pairs.add(pool.submit(new Runnable() {
+            public void run() {
+               // Both games of the pair use the same opening, with colors swapped
+               for (int aPlayer = 1; aPlayer <= 2 && !finished; aPlayer++)
+                  record(playGame(openingSeed, aPlayer), aPlayer);
+            }
+         }));
+      }
+      pool.shutdown();
+
+      try {
+         for (Future<?> pair : pairs)
+            pair.get();
+      }
+      catch (ExecutionException e) {
+         finished = true;
+         pool.shutdownNow();
+
+         // A Runnable can only throw unchecked exceptions
+         if (e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+         throw (RuntimeException) e.getCause();
+      }
+
+      // A match the test stopped has already printed its last line
+      if (!finished) {
+         finished = true;
+         result = "SPRT: no decision";
+         report();
+      }
+   }
+
+   // Returns the winning player, or State.TIE
+   private int playGame(long openingSeed, int aPlayer) {
+      Engine[] pair = this.engines.get();
+      Engine[] engines = new Engine[3];
+      engines[aPlayer] = pair[0];
+      engines[3 - aPlayer] = pair[1];
+      for (Engine engine : pair)
+         engine.clear();
+
+      State state = new State();
+      Random random = new Random(openingSeed);
+      int[] moves = new int[State.MAX_MOVES];
+      int player = 1;
+      int game = recorder != null ? recorder.startGame(player) : 0;
+
+      for (int ply = 0; ply < OPENING_PLIES; ply++) {
+         int count = state.generateMoves(moves);
+         int move = moves[random.nextInt(count)];
+         state.makeMove(move, player);
+         if (recorder != null)
+            recorder.recordMove(game, player, move, 0, 0, 0);
+         player = 3 - player;
+      }
+
+      while (!state.isGameOver()) {
+         long startTime = System.nanoTime();
+         Move move = engines[player].getBestMove(state, player);
+         state.makeMove(move.toIndex(), player);
+         if (recorder != null)
+            recorder.recordMove(game, player, move.toIndex(), System.nanoTime() - startTime, engines[player].getLastScore(), engines[player].getLastDepth());
+         player = 3 - player;
+      }
+
+      int winner = state.getWinner();
+
+      if (recorder != null)
+         recorder.endGame(game, winner);
+      return winner;
+   }
+
+   private synchronized void record(int winner, int aPlayer) {
+      if (finished)
+         return;
+
+      if (winner == aPlayer)
+         wins++;
+      else if (winner == State.TIE)
+         draws++;
+      else
+         losses++;
+
+      int games = wins + draws + losses;
+
+      double llr = getLogLikelihoodRatio();
+      if (llr >= Math.log((1 - BETA) / ALPHA)) {
+         result = "SPRT: H1 accepted (elo >= " + elo1 + ")";
+         finished = true;
+      }
+      else if (llr <= Math.log(BETA / (1 - ALPHA))) {
+         result = "SPRT: H0 accepted (elo <= " + elo0 + ")";
+         finished = true;
+      }
+
+      if (games % 20 == 0 || finished)
+         report();
+   }
+
+   private synchronized void report() {
+      int games = wins + draws + losses;
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+
+      System.out.println(String.format("Games %d: +%d =%d -%d  Elo %s  LLR %.2f  %.2f games/s  %s",
+         games, wins, draws, losses, getEloString(), getLogLikelihoodRatio(), games / seconds, result));
+   }
+
+   private double getScore() {
+      return (wins + draws / 2.0) / (wins + draws + losses);
+   }
+
+   // Variance of a single game's score
+   private double getVariance() {
+      int games = wins + draws + losses;
+      double score = getScore();
+
+      return (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2) + losses * Math.pow(score, 2)) / games;
+   }
+
+   private String getEloString() {
+      int games = wins + draws + losses;
+      if (games == 0)
+         return "-";
+
+      double score = getScore();
+      double margin = 1.96 * Math.sqrt(getVariance() / games);
+      double elo = toElo(score);
+
+      return String.format("%.1f +/- %.1f", elo, (toElo(score + margin) - toElo(score - margin)) / 2);
+   }
+
+   // Generalized SPRT on the mean score, normal approximation
+   private double getLogLikelihoodRatio() {
+      int games = wins + draws + losses;
+      double variance = getVariance();
+
+      if (games == 0 || variance == 0)
+         return 0;
+
+      double score = getScore();
+      double score0 = toScore(elo0), score1 = toScore(elo1);
+
+      return games * (Math.pow(score - score0, 2) - Math.pow(score - score1, 2)) / (2 * variance);
+   }
+
+   private static double toElo(double score) {
+      score = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+      return -400 * Math.log10(1 / score - 1);
+   }
+
+   private static double toScore(double elo) {
+      return 1 / (1 + Math.pow(10, -elo / 400));
+   }
+
+   // Builds an engine from a configuration such as "minimax:depth=6,time=0"
+   public static Engine createEngine(String config) {
+      String[] parts = config.split(":", 2);
+      String[] options = parts.length > 1 ? parts[1].split(",") : new String[0];
+
+      if (parts[0].equals("mcts")) {
+         MctsEngine engine = new MctsEngine(1 << 18);
+
+         for (String option : options) {
+            String[] pair = option.split("=");
+            if (pair[0].equals("time"))
+               engine.setTimeLimit(Long.parseLong(pair[1]));
+            else if (pair[0].equals("playouts"))
+               engine.setPlayoutLimit(Integer.parseInt(pair[1]));
+            else if (pair[0].equals("c"))
+               engine.setExploration(Double.parseDouble(pair[1]));
+            else
+               throw new IllegalArgumentException("Unknown mcts option: " + option);
+         }
+         return engine;
+      }
+      else if (parts[0].equals("minimax")) {
+         Bot bot = new Bot(4);
+         boolean limited = false;
+
+         for (String option : options) {
+            String[] pair = option.split("=");
+            if (pair[0].equals("time")) {
+               bot.setTimeLimit(Long.parseLong(pair[1]));
+               limited = true;
+            }
+            else if (pair[0].equals("depth")) {
+               bot.setMaxDepth(Integer.parseInt(pair[1]));
+               limited = true;
+            }
+            else if (pair[0].equals("solver"))
+               bot.setSolverThreshold(Integer.parseInt(pair[1]));
+            else if (pair[0].equals("aspiration"))
+               bot.setAspirationWindow(Integer.parseInt(pair[1]));
+            else if (pair[0].equals("lmr"))
+               bot.setLateMoveReduction(Integer.parseInt(pair[1]));
+            else if (pair[0].equals("extensions"))
+               bot.setExtensions(Integer.parseInt(pair[1]) != 0);
+            else if (pair[0].equals("weights")) {
+               try {
+                  bot.setWeights(EvaluationWeights.read(Paths.get(pair[1])));
+               }
+               catch (IOException e) {
+                  throw new UncheckedIOException(e);
+               }
+            }
+            else
+               throw new IllegalArgumentException("Unknown minimax option: " + option);
+         }
+
+         // Without either, a search would run to the end of the game
+         if (!limited)
+            bot.setTimeLimit(DEFAULT_TIME);
+         return bot;
+      }
+      throw new IllegalArgumentException("Unknown engine: " + parts[0]);
+   }
+
+   public static void main(String[] args) throws InterruptedException, IOException {
+      if (args.length < 2) {
+         System.err.println("Usage: java Tournament engineA engineB [games] [threads] [elo0 elo1] [logDirectory]");
+         return;
+      }
+
+      int games = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+      int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+      double elo0 = args.length > 5 ? Double.parseDouble(args[4]) : 0;
+      double elo1 = args.length > 5 ? Double.parseDouble(args[5]) : 10;
+
+      // Bad options fail here, rather than in the first game of every thread
+      createEngine(args[0]);
+      createEngine(args[1]);
+
+      Tournament tournament = new Tournament(args[0], args[1], games, elo0, elo1, 1);
+      if (args.length > 6)
+         tournament.setRecorder(new GameRecorder(Paths.get(args[6])));
+      tournament.run(threads);
+   }
+}
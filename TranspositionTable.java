@@ -0,0 +1,113 @@
+/**
+ * TranspositionTable class
+ *
+ * Fixed-size hash table of searched positions, stored in two primitive
+ * arrays so it never allocates after construction. Entries live in buckets
+ * of two: the first slot keeps the deepest result (unless it is left over
+ * from an earlier search), the second slot is always replaced.
+ *
+ * An entry packs the score, depth, bound type, best move and search age
+ * into one long, which probe returns as-is (0 on a miss). Use the static
+ * getters to unpack it.
+ *
+ * The table is shared by the search threads without locking. The key is
+ * stored XORed with its data, so an entry torn by two threads writing at
+ * once fails the key check instead of returning another position's data.
+ */
+
+public class TranspositionTable {
+   public static final int EXACT = 1, LOWER = 2, UPPER = 3;
+   public static final int NO_MOVE = 127;
+
+   // Bytes taken by one entry: a key and a data long
+   private static final int ENTRY_SIZE = 16;
+
+   private final long[] keys;
+   private final long[] data;
+   private final int bucketMask;
+   private int age;
+
+   public TranspositionTable(int megabytes) {
+      // Round the entry count down to a power of two so buckets can be masked
+      long entries = Long.highestOneBit(Math.max(2, (long) megabytes * 1024 * 1024 / ENTRY_SIZE));
+      entries = Math.min(entries, 1 << 30);
+
+      keys = new long[(int) entries];
+      data = new long[(int) entries];
+      bucketMask = (int) (entries / 2 - 1);
+   }
+
+   // Call before every new search so the entries of older searches get replaced first
+   public void newSearch() {
+      age = (age + 1) & 0xFF;
+   }
+
+   public void clear() {
+      for (int i = 0; i < keys.length; i++) {
+         keys[i] = 0;
+         data[i] = 0;
+      }
+   }
+
+   public long probe(long key) {
+      int slot = ((int) key & bucketMask) * 2;
+
+      for (int i = slot; i < slot + 2; i++) {
+         long entry = data[i];
+
+         if (entry != 0 && (keys[i] ^ entry) == key)
+            return entry;
+      }
+      return 0;
+   }
+
+   public void store(long key, int depth, int bound, int score, int move) {
+      int slot = ((int) key & bucketMask) * 2;
+      long entry = pack(depth, bound, score, move);
+
+      // The depth-preferred slot takes the entry when it is at least as deep,
+      // from an older search, or the same position
+      long old = data[slot];
+      if (old == 0 || (keys[slot] ^ old) == key || getAge(old) != age || depth >= getDepth(old)) {
+         keys[slot] = key ^ entry;
+         data[slot] = entry;
+      }
+      else {
+         keys[slot + 1] = key ^ entry;
+         data[slot + 1] = entry;
+      }
+   }
+
+   private long pack(int depth, int bound, int score, int move) {
+      return (score & 0xFFFFFFFFL)
+         | (long) (depth & 0xFF) << 32
+         | (long) bound << 40
+         | (long) (move & 0x7F) << 42
+         | (long) age << 49;
+   }
+
+   public static int getScore(long entry) {
+      return (int) entry;
+   }
+
+   public static int getDepth(long entry) {
+      return (int) (entry >>> 32) & 0xFF;
+   }
+
+   public static int getBound(long entry) {
+      return (int) (entry >>> 40) & 0x3;
+   }
+
+   // Returns NO_MOVE when no best move was stored
+   public static int getMove(long entry) {
+      return (int) (entry >>> 42) & 0x7F;
+   }
+
+   private static int getAge(long entry) {
+      return (int) (entry >>> 49) & 0xFF;
+   }
+
+   public int getCapacity() {
+      return keys.length;
+   }
+}
@@ -1,16 +1,18 @@
 import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
 import javax.swing.*;
 
 public class Ultimate extends JFrame {
    private DisplayPanel display;
    
-   public Ultimate() {
+   public Ultimate(Engine engine, Engine opponent, GameRecorder recorder) {
       super("Ultimate Tic Tac Toe");
       setLayout(new BorderLayout());
       setDefaultCloseOperation(EXIT_ON_CLOSE);
       setResizable(false);
       
-      display = new DisplayPanel();
+      display = new DisplayPanel(engine, opponent, recorder);
       
       add(display, BorderLayout.CENTER);
       
@@ -25,8 +27,34 @@ public class Ultimate extends JFrame {
       display.start();
    }
    
+   // Pass "mcts" to play against the Monte Carlo engine instead of minimax,
+   // and "watch" to watch minimax play it as player 1 instead of playing.
+   // Games are recorded if there is a games directory, and the evaluation
+   // weights read from evaluation.weights if there is one.
    public static void main(String[] args) {
-      Ultimate ult = new Ultimate();
+      List<String> options = Arrays.asList(args);
+      
+      Engine engine;
+      if (options.contains("mcts"))
+         engine = new MctsEngine();
+      else {
+         Bot bot = new Bot();
+         bot.setOpeningBook(OpeningBook.openDefault());
+         bot.setWeights(EvaluationWeights.openDefault());
+         bot.setSolverThreshold(EndgameSolver.DEFAULT_THRESHOLD);
+         bot.getStats().register("minimax");
+         engine = bot;
+      }
+      
+      Engine opponent = null;
+      if (options.contains("watch")) {
+         Bot bot = new Bot();
+         bot.setOpeningBook(OpeningBook.openDefault());
+         bot.setWeights(EvaluationWeights.openDefault());
+         opponent = bot;
+      }
+      
+      Ultimate ult = new Ultimate(engine, opponent, GameRecorder.openDefault());
       ult.start();
    }
 }
\ No newline at end of file
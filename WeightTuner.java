@@ -0,0 +1,316 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * WeightTuner class
+ *
+ * Fits the evaluation weights to the results of recorded games, Texel
+ * style. Every position of a finished game is labelled with the game's
+ * result for player 1 (1, 0.5 or 0), its evaluation s for player 1 is
+ * mapped to an expected result 1 / (1 + e^(-K s)), and the weights are
+ * moved to minimize the mean squared difference. K is fitted first, to the
+ * starting weights, so the tuned weights keep the scale of the scores.
+ *
+ * Positions are turned into feature vectors once, as the log is read: for
+ * every board whether player 1 or 2 won it and the difference of the two
+ * players' two-in-a-row counts there (Bot.getMicroTwoInARows), and the
+ * difference of their macroboard two-in-a-rows. Bot.evaluationFunction is
+ * a sum of products of those with the weights, so the error and its
+ * gradient are computed from the vectors alone, summed over slices of the
+ * corpus on a ForkJoinPool. The weights are stepped with Adam on their
+ * logarithms, which keeps them positive and moves the large and the small
+ * ones at the same relative rate. Scaling the multipliers up and the
+ * won-board and microboard weights down by the same factor changes no
+ * score, so the multipliers are held to their starting mean.
+ *
+ * Corpora come from Tournament with a log directory, or any GameRecorder log.
+ *
+ * Usage: java WeightTuner [logDirectory] [output] [iterations] [threads]
+ */
+
+public class WeightTuner {
+   // Tournament's first moves are random, so positions before this ply are left out
+   private static final int MIN_PLY = 4;
+
+   // Bytes per position: won board per board, macroboard two-in-a-rows,
+   // microboard two-in-a-rows per board
+   private static final int FEATURES = 19;
+   private static final int MACRO = 9, MICRO = 10;
+
+   // Positions a slice sums without splitting further
+   private static final int SLICE = 1 << 13;
+
+   private static final double LEARNING_RATE = 0.01;
+   private static final double BETA1 = 0.9, BETA2 = 0.999, EPSILON = 1e-12;
+   // Tuning stops once the error hasn't dropped by TOLERANCE in PATIENCE steps
+   private static final double TOLERANCE = 1e-9;
+   private static final int PATIENCE = 50;
+
+   private final ForkJoinPool pool;
+
+   // features[i * FEATURES ...] is the vector of position i, results[i] its
+   // game's result for player 1 in halves: 2, 1 or 0
+   private byte[] features = new byte[FEATURES << 16];
+   private byte[] results = new byte[1 << 16];
+   private int positions;
+   private int games;
+   // Steps the last tune took
+   private int steps;
+
+   public WeightTuner(int threads) {
+      pool = new ForkJoinPool(threads);
+   }
+
+   // Adds the positions of the log's finished games
+   public void read(Path directory) throws IOException {
+      final Bot bot = new Bot(1);
+      // Vectors of the games still going, by game
+      final Map<Integer, byte[]> playing = new HashMap<Integer, byte[]>();
+      final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+
+      new GameLogReader(directory).forEach(new GameLogReader.Replay() {
+         protected void position(int game, State state, int player, int move, int micros, int score, int depth) {
+            if (state.getPly() < MIN_PLY)
+               return;
+
+            byte[] vectors = playing.computeIfAbsent(game, key -> new byte[State.MAX_MOVES * FEATURES]);
+            int count = counts.getOrDefault(game, 0);
+            extract(bot, state, vectors, count * FEATURES);
+            counts.put(game, count + 1);
+         }
+
+         protected void gameOver(int game, State state, int winner) {
+            byte[] vectors = playing.remove(game);
+            Integer count = counts.remove(game);
+
+            // Abandoned games have no result to learn from
+            if (vectors == null || winner == 0)
+               return;
+            add(vectors, count, winner == 1 ? 2 : winner == 2 ? 0 : 1);
+            games++;
+         }
+      });
+   }
+
+   private static void extract(Bot bot, State state, byte[] vectors, int offset) {
+      int one = state.getMacro(1), two = state.getMacro(2);
+
+      for (int b = 0; b < 9; b++) {
+         vectors[offset + b] = (byte) ((one >> b & 1) - (two >> b & 1));
+         vectors[offset + MICRO + b] = (byte) (bot.getMicroTwoInARows(state, b, 1) - bot.getMicroTwoInARows(state, b, 2));
+      }
+      vectors[offset + MACRO] = (byte) (bot.getMacroTwoInARows(state, 1) - bot.getMacroTwoInARows(state, 2));
+   }
+
+   private void add(byte[] vectors, int count, int result) {
+      if (positions + count > results.length) {
+         int capacity = Math.max(results.length * 2, positions + count);
+         features = Arrays.copyOf(features, capacity * FEATURES);
+         results = Arrays.copyOf(results, capacity);
+      }
+
+      System.arraycopy(vectors, 0, features, positions * FEATURES, count * FEATURES);
+      Arrays.fill(results, positions, positions + count, (byte) result);
+      positions += count;
+   }
+
+   // Mean squared error of weights at k, followed by its gradient in weights
+   private double[] getError(double[] weights, double k) {
+      double[] sums = pool.invoke(new Slice(weights, k, 0, positions));
+      for (int i = 0; i < sums.length; i++)
+         sums[i] /= positions;
+      return sums;
+   }
+
+   // Sums the squared error and its gradient over positions [from, to)
+   private class Slice extends RecursiveTask<double[]> {
+      private static final long serialVersionUID = 1L;
+
+      private final double[] weights;
+      private final double k;
+      private final int from, to;
+
+      Slice(double[] weights, double k, int from, int to) {
+         this.weights = weights;
+         this.k = k;
+         this.from = from;
+         this.to = to;
+      }
+
+      protected double[] compute() {
+         if (to - from > SLICE) {
+            int middle = (from + to) >>> 1;
+            Slice left = new Slice(weights, k, from, middle);
+            left.fork();
+
+            double[] sums = new Slice(weights, k, middle, to).compute();
+            double[] leftSums = left.join();
+            for (int i = 0; i < sums.length; i++)
+               sums[i] += leftSums[i];
+            return sums;
+         }
+
+         double wonBoard = weights[0], macroTwoInARow = weights[1], microTwoInARow = weights[2];
+         double[] sums = new double[EvaluationWeights.COUNT + 1];
+
+         for (int i = from; i < to; i++) {
+            int offset = i * FEATURES;
+
+            // The score is wonBoard * won + macroTwoInARow * macro + microTwoInARow * micro
+            double won = 0, micro = 0;
+            for (int b = 0; b < 9; b++) {
+               won += weights[3 + b] * features[offset + b];
+               micro += weights[3 + b] * features[offset + MICRO + b];
+            }
+            int macro = features[offset + MACRO];
+            double score = wonBoard * won + macroTwoInARow * macro + microTwoInARow * micro;
+
+            double expected = 1 / (1 + Math.exp(-k * score));
+            double difference = results[i] / 2.0 - expected;
+            sums[0] += difference * difference;
+
+            // Derivative of the squared error by the score
+            double slope = -2 * difference * expected * (1 - expected) * k;
+            sums[1] += slope * won;
+            sums[2] += slope * macro;
+            sums[3] += slope * micro;
+            for (int b = 0; b < 9; b++)
+               sums[4 + b] += slope * (wonBoard * features[offset + b] + microTwoInARow * features[offset + MICRO + b]);
+         }
+         return sums;
+      }
+   }
+
+   // The K that minimizes the error of weights, by golden section search on log K
+   public double fitK(double[] weights) {
+      double ratio = (Math.sqrt(5) - 1) / 2;
+      double low = -6, high = 0;
+
+      while (high - low > 1e-4) {
+         double a = high - ratio * (high - low), b = low + ratio * (high - low);
+         if (getError(weights, Math.pow(10, a))[0] < getError(weights, Math.pow(10, b))[0])
+            high = b;
+         else
+            low = a;
+      }
+      return Math.pow(10, (low + high) / 2);
+   }
+
+   // Returns the weights with the lowest error found in at most the given
+   // number of steps
+   public double[] tune(double[] start, double k, int iterations) {
+      int n = start.length;
+      double[] logs = new double[n];
+      double[] first = new double[n], second = new double[n];
+      double[] weights = start.clone();
+      double[] best = start.clone();
+      double bestError = Double.MAX_VALUE;
+      int improved = 0;
+
+      double meanMultiplier = 0;
+      for (int b = 0; b < 9; b++)
+         meanMultiplier += start[3 + b] / 9;
+      for (int i = 0; i < n; i++)
+         logs[i] = Math.log(start[i]);
+
+      for (int iteration = 1; iteration <= iterations; iteration++) {
+         double[] error = getError(weights, k);
+         if (error[0] < bestError - TOLERANCE)
+            improved = iteration;
+         if (error[0] < bestError) {
+            bestError = error[0];
+            best = weights.clone();
+         }
+
+         steps = iteration;
+         if (iteration % 100 == 0 || iteration == 1)
+            System.err.println(String.format("iteration %d: error %.6f", iteration, error[0]));
+         if (iteration - improved >= PATIENCE)
+            break;
+
+         for (int i = 0; i < n; i++) {
+            // By the logarithm, d/dlog w = w * d/dw
+            double gradient = error[i + 1] * weights[i];
+            first[i] = BETA1 * first[i] + (1 - BETA1) * gradient;
+            second[i] = BETA2 * second[i] + (1 - BETA2) * gradient * gradient;
+
+            double firstEstimate = first[i] / (1 - Math.pow(BETA1, iteration));
+            double secondEstimate = second[i] / (1 - Math.pow(BETA2, iteration));
+            logs[i] -= LEARNING_RATE * firstEstimate / (Math.sqrt(secondEstimate) + EPSILON);
+         }
+
+         // Back to the starting mean multiplier, without changing any score
+         double mean = 0;
+         for (int b = 0; b < 9; b++)
+            mean += Math.exp(logs[3 + b]) / 9;
+         double shift = Math.log(meanMultiplier / mean);
+         for (int b = 0; b < 9; b++)
+            logs[3 + b] += shift;
+         logs[0] -= shift;
+         logs[2] -= shift;
+
+         for (int i = 0; i < n; i++)
+            weights[i] = Math.exp(logs[i]);
+      }
+
+      return best;
+   }
+
+   public int getPositions() {
+      return positions;
+   }
+
+   public int getGames() {
+      return games;
+   }
+
+   public int getSteps() {
+      return steps;
+   }
+
+   public void close() {
+      pool.shutdown();
+   }
+
+   public static void main(String[] args) throws IOException {
+      Path directory = Paths.get(args.length > 0 ? args[0] : GameRecorder.DEFAULT_DIRECTORY);
+      Path output = Paths.get(args.length > 1 ? args[1] : EvaluationWeights.DEFAULT_PATH);
+      int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+      int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+      WeightTuner tuner = new WeightTuner(threads);
+      long startTime = System.nanoTime();
+      tuner.read(directory);
+      System.err.println(String.format("%d positions of %d games read in %.1f s",
+         tuner.getPositions(), tuner.getGames(), (System.nanoTime() - startTime) / 1e9));
+      if (tuner.getPositions() == 0) {
+         System.err.println("No finished games in " + directory);
+         return;
+      }
+
+      double[] start = EvaluationWeights.openDefault().toArray();
+      double k = tuner.fitK(start);
+      double startError = tuner.getError(start, k)[0];
+      System.err.println(String.format("K %.3g, error %.6f", k, startError));
+
+      startTime = System.nanoTime();
+      double[] tuned = tuner.tune(start, k, iterations);
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      double error = tuner.getError(tuned, k)[0];
+      tuner.close();
+
+      System.err.println(String.format("%d iterations in %.1f s, %.0f positions/s, error %.6f -> %.6f",
+         tuner.getSteps(), seconds, (double) tuner.getSteps() * tuner.getPositions() / seconds, startError, error));
+
+      EvaluationWeights weights = new EvaluationWeights(tuned);
+      weights.write(output, String.format("Tuned on %d positions of %d games, K %.3g, error %.6f -> %.6f",
+         tuner.getPositions(), tuner.getGames(), k, startError, error));
+      System.out.print(weights);
+   }
+}